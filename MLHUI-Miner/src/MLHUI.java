@@ -4,18 +4,28 @@ import javax.swing.border.TitledBorder;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
-import java.util.ArrayList;
 import java.util.List;
 
 public class MLHUI extends JFrame {
 
     private JTextArea txtTransactions, txtExternalUtility, txtTaxonomy, txtOutput;
     private JTextField txtMinUtil;
+    private JComboBox<MLHUIMiner.OutputMode> cmbOutputMode;
     private JTextField txtTransactionsPath, txtExternalUtilityPath, txtTaxonomyPath;
-    private JLabel lblStatus, lblTime, lblMemory;
-    private JButton btnRun, btnExport, btnAbout;
-    private final List<String> outputLines = new ArrayList<>();
+    private JLabel lblStatus, lblTime, lblMemory, lblOutputTitle;
+    private JButton btnRun, btnCancel, btnExport, btnAbout;
+    // Kết quả đầy đủ được ghi thẳng ra file tạm, Export chỉ sao chép file này
+    private java.nio.file.Path resultFile;
+    private java.io.BufferedWriter resultWriter;
+    private int resultLineCount = 0;
     private int runCount = 0;
+    // Ô Output chỉ giữ các dòng cuối để không bị chậm với tập kết quả lớn
+    private static final int MAX_OUTPUT_LINES = 20_000;
+    private int hiddenOutputLines = 0;
+    private MiningWorker worker;
+    private javax.swing.Timer progressTimer;
+    private volatile double progressFraction = 0;
+    private long runStartNanos;
     private final java.util.Map<Integer, Integer> huiIndexByLevel = new java.util.HashMap<>();
     private Integer currentLevel = null;
 
@@ -26,6 +36,12 @@ public class MLHUI extends JFrame {
     private final Color colorMuted = new Color(0x667085);
 
     private final MLHUIMiner miner = new MLHUIMiner();
+    // Kết quả các lần chạy trước, dùng lại khi chạy lại cùng dữ liệu với minUtil cao hơn
+    private final ResultCache resultCache = new ResultCache(32, 256L << 20);
+    private final java.nio.file.Path resultCacheFile = java.nio.file.Paths.get(
+            System.getProperty("user.home"), ".mlhui", "result-cache.bin");
+    // Cache được đọc ở luồng nền; trước khi đọc xong các lần chạy bỏ qua cache
+    private volatile boolean resultCacheReady = false;
 
     public MLHUI() {
         applyModernUi();
@@ -36,6 +52,19 @@ public class MLHUI extends JFrame {
         setLocationRelativeTo(null);
         buildUi();
         wireEvents();
+        Thread loader = new Thread(this::loadResultCache, "mlhui-cache-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void loadResultCache() {
+        try {
+            resultCache.load(resultCacheFile);
+        } catch (Exception ignored) {
+            // File hỏng hoặc khác phiên bản: bắt đầu với bộ nhớ đệm rỗng
+        } finally {
+            resultCacheReady = true;
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
@@ -71,6 +100,7 @@ public class MLHUI extends JFrame {
 
     private void wireEvents() {
         btnRun.addActionListener(e -> runMLHUI());
+        btnCancel.addActionListener(e -> cancelRun());
         btnExport.addActionListener(e -> exportOutputToTxt());
         btnAbout.addActionListener(e -> showAbout());
     }
@@ -126,9 +156,9 @@ public class MLHUI extends JFrame {
         outputHeader.setBorder(new EmptyBorder(10, 12, 10, 12));
         outputHeader.setBackground(colorCard);
 
-        JLabel outputTitle = new JLabel("Output");
-        outputTitle.setFont(outputTitle.getFont().deriveFont(Font.BOLD, 14f));
-        outputHeader.add(outputTitle, BorderLayout.WEST);
+        lblOutputTitle = new JLabel("Output");
+        lblOutputTitle.setFont(lblOutputTitle.getFont().deriveFont(Font.BOLD, 14f));
+        outputHeader.add(lblOutputTitle, BorderLayout.WEST);
 
         JPanel stats = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
         stats.setOpaque(false);
@@ -185,14 +215,21 @@ public class MLHUI extends JFrame {
         actions.add(minUtilLabel);
         txtMinUtil = new JTextField("20", 6);
         actions.add(txtMinUtil);
+        cmbOutputMode = new JComboBox<>(MLHUIMiner.OutputMode.values());
+        cmbOutputMode.setToolTipText("ALL: mọi HUI, CLOSED: HUI đóng, MAXIMAL: HUI tối đại");
+        actions.add(cmbOutputMode);
 
         btnRun = new JButton("Run");
+        btnCancel = new JButton("Cancel");
         btnExport = new JButton("Export TXT");
         btnAbout = new JButton("About");
         styleButton(btnRun, true);
+        styleButton(btnCancel, false);
         styleButton(btnExport, false);
         styleButton(btnAbout, false);
+        btnCancel.setEnabled(false);
         actions.add(btnRun);
+        actions.add(btnCancel);
         actions.add(btnExport);
         actions.add(btnAbout);
 
@@ -397,50 +434,213 @@ public class MLHUI extends JFrame {
     }
 
     private void runMLHUI() {
+        if (worker != null) return;
 
+        int minUtil = Integer.parseInt(txtMinUtil.getText().trim());
+        try {
+            openResultFile();
+        } catch (java.io.IOException ex) {
+            JOptionPane.showMessageDialog(this,
+                    "Cannot create result file: " + ex.getMessage(),
+                    "Run Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         txtOutput.setText("");
-        outputLines.clear();
+        hiddenOutputLines = 0;
+        lblOutputTitle.setText("Output");
         lblStatus.setText("Status: Running...");
         lblTime.setText("Time: -");
         lblMemory.setText("Memory: -");
         huiIndexByLevel.clear();
         currentLevel = null;
 
-        int minUtil = Integer.parseInt(txtMinUtil.getText().trim());
+        MLHUIMiner.OutputMode outputMode = (MLHUIMiner.OutputMode) cmbOutputMode.getSelectedItem();
         String minUtilLine = "--- minUtil = " + minUtil+" ----";
-        outputLines.add(minUtilLine);
-        txtOutput.append(minUtilLine + "\n");
-
-        MLHUIMiner.Result result = miner.run(
-                txtTransactions.getText(),
-                txtExternalUtility.getText(),
-                txtTaxonomy.getText(),
-                minUtil,
-                this::handleLog
-        );
+        writeResultLine(minUtilLine);
+        appendOutput(minUtilLine + "\n");
+
+        btnRun.setEnabled(false);
+        btnExport.setEnabled(false);
+        btnCancel.setEnabled(true);
+        progressFraction = 0;
+        runStartNanos = System.nanoTime();
+        miner.setProgressListener((levelIndex, levelCount, done, total) ->
+                progressFraction = levelCount == 0 ? 1 : (levelIndex + (double) done / Math.max(1, total)) / levelCount);
+        progressTimer = new javax.swing.Timer(500, e -> updateProgress());
+        progressTimer.start();
+
+        worker = new MiningWorker(txtTransactions.getText(), txtExternalUtility.getText(),
+                txtTaxonomy.getText(), minUtil, outputMode);
+        worker.execute();
+    }
+
+    private void cancelRun() {
+        if (worker == null) return;
+        worker.cancelToken.cancel();
+        btnCancel.setEnabled(false);
+        lblStatus.setText("Status: Cancelling...");
+    }
+
+    // Chạy miner ngoài luồng giao diện; các dòng log được gom lại và thêm vào Output theo lô
+    private class MiningWorker extends SwingWorker<MLHUIMiner.Result, String> {
+        private final String transactions, externalUtility, taxonomy;
+        private final int minUtil;
+        private final MLHUIMiner.OutputMode outputMode;
+        // Tạo cùng worker nên nút Cancel có tác dụng ngay cả khi miner chưa bắt đầu chạy
+        private final MLHUIMiner.CancelToken cancelToken = new MLHUIMiner.CancelToken();
+
+        MiningWorker(String transactions, String externalUtility, String taxonomy, int minUtil,
+                MLHUIMiner.OutputMode outputMode) {
+            this.transactions = transactions;
+            this.externalUtility = externalUtility;
+            this.taxonomy = taxonomy;
+            this.minUtil = minUtil;
+            this.outputMode = outputMode;
+        }
+
+        @Override
+        protected MLHUIMiner.Result doInBackground() {
+            MLHUIMiner.LogSink sink = s -> publish(handleLog(s));
+            miner.setOutputMode(outputMode);
+            MLHUIMiner.RunOptions options = new MLHUIMiner.RunOptions();
+            options.cancelToken = cancelToken;
+            boolean cacheable = resultCacheReady && ResultCache.cacheable(outputMode, options);
+            String key = ResultCache.key(transactions, externalUtility, taxonomy);
+            MLHUIMiner.Result cached = cacheable && !cancelToken.isCancelled()
+                    ? resultCache.replay(key, minUtil, sink) : null;
+            if (cached != null) return cached;
+            MLHUIMiner.Result result = miner.run(transactions, externalUtility, taxonomy, minUtil, options, sink);
+            if (cacheable && result.status == MLHUIMiner.Status.COMPLETED) {
+                resultCache.put(key, minUtil, result);
+                try {
+                    resultCache.save(resultCacheFile);
+                } catch (java.io.IOException ignored) {
+                    // Không ghi được file thì vẫn giữ bộ nhớ đệm trong phiên này
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            StringBuilder sb = new StringBuilder();
+            for (String line : chunks) sb.append(line).append('\n');
+            appendOutput(sb.toString());
+        }
+
+        @Override
+        protected void done() {
+            finishRun(this);
+        }
+    }
+
+    private void finishRun(MiningWorker finished) {
+        worker = null;
+        progressTimer.stop();
+        closeResultFile();
+        btnRun.setEnabled(true);
+        btnExport.setEnabled(true);
+        btnCancel.setEnabled(false);
         runCount++;
+        try {
+            MLHUIMiner.Result result = finished.get();
+            if (result.status == MLHUIMiner.Status.COMPLETED) {
+                lblStatus.setText("Status: Done");
+            } else if (result.status == MLHUIMiner.Status.CANCELLED) {
+                lblStatus.setText("Status: Cancelled");
+                appendUiOnly("\n[!] Đã hủy sau " + elapsedText() + " (kết quả chưa đầy đủ)");
+            } else {
+                lblStatus.setText("Status: Stopped (" + result.status + ")");
+                appendUiOnly("\n[!] Dừng sớm do " + result.status + " (kết quả chưa đầy đủ)");
+            }
+            lblTime.setText("Time: " + result.timeMs + " ms");
+            lblMemory.setText("Memory: " + result.memoryKb + " KB");
+            appendUiOnly("\n[4] Performance");
+            appendUiOnly("    Time   : " + result.timeMs + " ms");
+            appendUiOnly("    Memory : " + result.memoryKb + " KB");
+        } catch (java.util.concurrent.ExecutionException ex) {
+            lblStatus.setText("Status: Error");
+            JOptionPane.showMessageDialog(this,
+                    "Mining failed: " + ex.getCause(),
+                    "Run Error", JOptionPane.ERROR_MESSAGE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void updateProgress() {
+        double f = Math.min(1, progressFraction);
+        long elapsedMs = (System.nanoTime() - runStartNanos) / 1_000_000;
+        String eta = f > 0.01 ? formatDuration((long) (elapsedMs * (1 - f) / f)) : "?";
+        if (btnCancel.isEnabled()) {
+            lblStatus.setText("Status: Running " + Math.round(f * 100) + "% | ETA " + eta);
+        }
+        lblTime.setText("Time: " + elapsedText());
+    }
+
+    private String elapsedText() {
+        return formatDuration((System.nanoTime() - runStartNanos) / 1_000_000);
+    }
+
+    private String formatDuration(long ms) {
+        long sec = ms / 1000;
+        if (sec < 60) return String.format("%.1f s", ms / 1000.0);
+        return String.format("%d:%02d:%02d", sec / 3600, (sec / 60) % 60, sec % 60);
+    }
+
+    private void openResultFile() throws java.io.IOException {
+        if (resultFile != null) java.nio.file.Files.deleteIfExists(resultFile);
+        resultFile = java.nio.file.Files.createTempFile("mlhui-result-", ".txt");
+        resultFile.toFile().deleteOnExit();
+        resultWriter = java.nio.file.Files.newBufferedWriter(resultFile);
+        resultLineCount = 0;
+    }
+
+    private void writeResultLine(String line) {
+        try {
+            resultWriter.write(line);
+            resultWriter.newLine();
+            resultLineCount++;
+        } catch (java.io.IOException ex) {
+            throw new java.io.UncheckedIOException(ex);
+        }
+    }
 
-        lblStatus.setText("Status: Done");
-        lblTime.setText("Time: " + result.timeMs + " ms");
-        lblMemory.setText("Memory: " + result.memoryKb + " KB");
-        appendUiOnly("\n[4] Performance");
-        appendUiOnly("    Time   : " + result.timeMs + " ms");
-        appendUiOnly("    Memory : " + result.memoryKb + " KB");
+    private void closeResultFile() {
+        try {
+            if (resultWriter != null) resultWriter.close();
+        } catch (java.io.IOException ignored) {
+        }
+        resultWriter = null;
     }
 
-    private void handleLog(String s) {
+    // Gọi trên luồng worker: ghi dòng kết quả ra file, trả về dòng hiển thị
+    private String handleLog(String s) {
         String uiLine = formatLogLine(s);
         String exportLine = formatExportLine(s);
         if (exportLine != null && !exportLine.isEmpty()) {
             for (String line : exportLine.split("\\R", -1)) {
-                if (!line.isEmpty()) outputLines.add(line);
+                if (!line.isEmpty()) writeResultLine(line);
             }
         }
-        txtOutput.append(uiLine + "\n");
+        return uiLine;
     }
 
     private void appendUiOnly(String s) {
-        txtOutput.append(s + "\n");
+        appendOutput(s + "\n");
+    }
+
+    private void appendOutput(String text) {
+        txtOutput.append(text);
+        int excess = txtOutput.getLineCount() - MAX_OUTPUT_LINES;
+        if (excess <= 0) return;
+        try {
+            txtOutput.replaceRange("", 0, txtOutput.getLineEndOffset(excess - 1));
+        } catch (javax.swing.text.BadLocationException ignored) {
+            return;
+        }
+        hiddenOutputLines += excess;
+        lblOutputTitle.setText("Output (ẩn " + hiddenOutputLines + " dòng đầu, xem Export TXT)");
     }
 
     private String formatLogLine(String s) {
@@ -511,7 +711,7 @@ public class MLHUI extends JFrame {
     }
 
     private void exportOutputToTxt() {
-        if (outputLines.isEmpty()) {
+        if (resultFile == null || resultLineCount == 0) {
             JOptionPane.showMessageDialog(this,
                     "No output to export. Run the miner first.",
                     "Export", JOptionPane.INFORMATION_MESSAGE);
@@ -523,7 +723,8 @@ public class MLHUI extends JFrame {
         if (res == JFileChooser.APPROVE_OPTION) {
             java.io.File file = ensureTxtExtension(chooser.getSelectedFile());
             try {
-                java.nio.file.Files.write(file.toPath(), outputLines);
+                java.nio.file.Files.copy(resultFile, file.toPath(),
+                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
                 JOptionPane.showMessageDialog(this,
                         "Exported to: " + file.getAbsolutePath(),
                         "Export", JOptionPane.INFORMATION_MESSAGE);
@@ -578,9 +779,12 @@ public class MLHUI extends JFrame {
                 "   - External Utility: giá trị utility (Item: value)\n" +
                 "   - Taxonomy: nhóm item (Group: item1, item2)\n" +
                 "   Có thể kéo thả file hoặc bấm Browse.\n\n" +
-                "2) Nhập MinUtil và bấm Run để chạy.\n\n" +
+                "2) Nhập MinUtil, chọn chế độ xuất (ALL / CLOSED / MAXIMAL) và bấm Run để chạy;\n" +
+                "   bấm Cancel để dừng giữa chừng.\n\n" +
                 "3) Kết quả hiển thị ở Output (có Time/Memory).\n\n" +
                 "4) Export TXT: xuất log kết quả (không bao gồm Time/Memory).\n\n" +
+                "5) Chạy lại cùng dữ liệu với MinUtil cao hơn sẽ lọc từ kết quả đã lưu\n" +
+                "   (~/.mlhui/result-cache.bin) thay vì khai phá lại (chỉ với chế độ ALL).\n\n" +
                 "Thuật ngữ trong chương trình:\n" +
                 "- Transaction (T): danh sách các giao dịch, một giao dịch gồm nhiều item và số lượng.\n" +
                 "- Item: sản phẩm/đối tượng trong giao dịch.\n" +
@@ -588,6 +792,8 @@ public class MLHUI extends JFrame {
                 "- Utility: giá trị của item trong giao dịch (= số lượng * external utility).\n" +
                 "- MinUtil: ngưỡng lợi ích tối thiểu để xét tập HUI.\n" +
                 "- HUI: tập item có utility >= MinUtil.\n" +
+                "- HUI đóng: HUI không có tập cha nào xuất hiện trong đúng cùng các giao dịch.\n" +
+                "- HUI tối đại: HUI không có tập cha nào cũng là HUI.\n" +
                 "- TWU: Tổng Utility trong tất cả giao dịch có chứa item.\n" +
                 "- EUCS: thông tin đồng xuất hiện để cắt tỉa (pruning).\n" +
                 "- DFS Level: quá trình tìm kiếm theo từng cấp (level).\n" +
@@ -1,81 +1,409 @@
 // Logic của chương trình
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.util.*;
 import java.util.List;
 
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
 public class MLHUIMiner {
     public interface LogSink {
         void log(String s);
     }
 
+    // Tiến độ: đang ở level thứ levelIndex (trong levelCount level), đã xong done/total nhánh gốc
+    public interface ProgressListener {
+        void progress(int levelIndex, int levelCount, int done, int total);
+    }
+
+    // Nhận từng HUI ngay khi được chọn; branch = thứ tự của nhánh gốc (mục đầu tiên) trong level
+    public interface HuiListener {
+        void found(int level, int branch, Hui hui);
+    }
+
+    // Một HUI: các mục theo thứ tự khai phá và utility. Với kết quả ước lượng trên mẫu,
+    // utility là giá trị ước lượng và margin là nửa độ rộng khoảng tin cậy
+    public static final class Hui {
+        public final List<String> items;
+        public final long utility;
+        public final boolean estimated;
+        public final long margin;
+
+        public Hui(List<String> items, long utility) {
+            this(items, utility, false, 0);
+        }
+
+        public Hui(List<String> items, long utility, boolean estimated, long margin) {
+            this.items = List.copyOf(items);
+            this.utility = utility;
+            this.estimated = estimated;
+            this.margin = margin;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Hui)) return false;
+            Hui h = (Hui) o;
+            return utility == h.utility && estimated == h.estimated && margin == h.margin && items.equals(h.items);
+        }
+
+        @Override
+        public int hashCode() { return Objects.hash(items, utility, estimated, margin); }
+
+        @Override
+        public String toString() { return format(this); }
+    }
+
+    // Cách lưu utility list cho mỗi level: danh sách tid hoặc bitset dọc
+    public enum Engine { AUTO, TIDLIST, BITSET }
+    // Nơi lưu giao dịch chiếu và utility list: heap hoặc MemorySegment ngoài heap
+    // (OFF_HEAP luôn chạy tidlist, bitset và các cột dày chỉ có trên heap)
+    public enum Storage { HEAP, OFF_HEAP }
+    // Tập HUI xuất ra ở mỗi level: tất cả, chỉ HUI đóng, hoặc chỉ HUI tối đại
+    public enum OutputMode { ALL, CLOSED, MAXIMAL }
+
+    // Trạng thái kết thúc: chạy hết, hoặc giới hạn nào đã làm dừng sớm
+    public enum Status { COMPLETED, TIME_LIMIT, RESULT_LIMIT, HEAP_LIMIT, CANCELLED }
+
+    // Cờ hủy của một lần chạy. Bên gọi tạo và giữ token trước khi chạy, nên lệnh hủy đến trước
+    // khi run() bắt đầu (ví dụ lúc GUI còn đang băm dữ liệu đầu vào) vẫn có hiệu lực
+    public static final class CancelToken {
+        private volatile boolean cancelled = false;
+        public void cancel() { cancelled = true; }
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    // Giới hạn cho một lần chạy; giá trị 0 nghĩa là không giới hạn
+    public static class RunOptions {
+        public long timeLimitMs = 0;
+        public long maxResults = 0;
+        public long heapBudgetBytes = 0;
+        // Khai phá xấp xỉ trên mẫu: sampleFraction trong (0, 1) bật chế độ mẫu, 0 hoặc >= 1 chạy chính xác
+        public double sampleFraction = 0;
+        // Phân tầng theo độ lớn TU của giao dịch (cùng số bit) và lấy mẫu tỉ lệ trong từng tầng
+        public boolean sampleStratified = false;
+        public long sampleSeed = 1;
+        // Hạ ngưỡng trên mẫu thêm tỉ lệ này để bớt bỏ sót HUI gần ngưỡng
+        public double sampleSlack = 0.2;
+        // Hệ số z của khoảng tin cậy (1.96 ~ 95%)
+        public double sampleZ = 1.96;
+        // Tính lại utility chính xác của các ứng viên trên toàn bộ CSDL và loại ứng viên sai
+        public boolean sampleVerify = false;
+        // Chỉ khai phá các nhánh gốc i có i % partitionCount == partitionIndex (dùng cho PartitionedMiner)
+        public int partitionCount = 1;
+        public int partitionIndex = 0;
+        // null: run() tự tạo token mới, khi đó chỉ cancel() trong lúc đang chạy mới có tác dụng
+        public CancelToken cancelToken = null;
+        // false: HUI chỉ được gửi qua HuiListener, không giữ trong Result (và không in danh sách ở cuối level)
+        public boolean keepResults = true;
+    }
+
+    // Dữ liệu đã phân tích: giao dịch (đã gắn chỉ mục lá), external utility, taxonomy, chỉ mục taxonomy
+    // và TWU trên toàn CSDL. Không bị sửa sau khi dựng nên nhiều lần chạy, kể cả song song trên các
+    // MLHUIMiner khác nhau, dùng chung được một Dataset
+    public static final class Dataset {
+        private final List<Transaction> transactions;
+        private final Map<String, Integer> extUtil;
+        private final Map<String, List<String>> taxonomy;
+        private final TaxonomyIndex taxonomyIndex;
+        private final Map<String, Integer> twu;
+        // I: các mục xuất hiện trong giao dịch
+        private final Set<String> items;
+        private final long estimatedBytes;
+
+        private Dataset(List<Transaction> transactions, Map<String, Integer> extUtil,
+                        Map<String, List<String>> taxonomy, TaxonomyIndex taxonomyIndex, Map<String, Integer> twu) {
+            this.transactions = Collections.unmodifiableList(transactions);
+            this.extUtil = Collections.unmodifiableMap(extUtil);
+            this.taxonomy = Collections.unmodifiableMap(taxonomy);
+            this.taxonomyIndex = taxonomyIndex;
+            this.twu = Collections.unmodifiableMap(twu);
+            Set<String> I = new HashSet<>();
+            long bytes = 64L * (taxonomyIndex.size() + extUtil.size() + twu.size());
+            for (Transaction t : transactions) {
+                I.addAll(t.items.keySet());
+                bytes += 128 + 72L * t.items.size();
+            }
+            this.items = Collections.unmodifiableSet(I);
+            this.estimatedBytes = bytes;
+        }
+
+        public int size() { return transactions.size(); }
+
+        // Ước lượng thô số byte trên heap, dùng để giới hạn bộ nhớ khi giữ nhiều Dataset
+        public long estimatedBytes() { return estimatedBytes; }
+    }
+
     public static class Result {
         public final long timeMs;
         public final long memoryKb;
+        public final Status status;
+        // true nếu kết quả lấy từ mẫu (utility ước lượng hoặc có thể thiếu HUI)
+        public final boolean approximate;
+        // HUI theo level; level dừng sớm chỉ chứa phần đã tìm được
+        public final Map<Integer, List<Hui>> huisByLevel;
+        // TWU lớn nhất của các mục ở mỗi level: level chỉ được khai phá khi giá trị này >= minUtil
+        public final Map<Integer, Long> maxTwuByLevel;
 
         public Result(long timeMs, long memoryKb) {
+            this(timeMs, memoryKb, Status.COMPLETED, Collections.emptyMap());
+        }
+
+        public Result(long timeMs, long memoryKb, Status status, Map<Integer, List<Hui>> huisByLevel) {
+            this(timeMs, memoryKb, status, false, huisByLevel);
+        }
+
+        public Result(long timeMs, long memoryKb, Status status, boolean approximate,
+                      Map<Integer, List<Hui>> huisByLevel) {
+            this(timeMs, memoryKb, status, approximate, huisByLevel, Collections.emptyMap());
+        }
+
+        public Result(long timeMs, long memoryKb, Status status, boolean approximate,
+                      Map<Integer, List<Hui>> huisByLevel, Map<Integer, Long> maxTwuByLevel) {
             this.timeMs = timeMs;
             this.memoryKb = memoryKb;
+            this.status = status;
+            this.approximate = approximate;
+            this.huisByLevel = huisByLevel;
+            this.maxTwuByLevel = maxTwuByLevel;
         }
     }
 
+    // ===== ĐỊNH DẠNG LOG DÙNG CHUNG (miner, ResultCache, PartitionedMiner) =====
+    // "[a, b] = 12", hoặc "[a, b] ≈ 12 ± 3" với kết quả ước lượng
+    public static String format(Hui hui) {
+        return hui.items + (hui.estimated ? " ≈ " + hui.utility + " ± " + hui.margin : " = " + hui.utility);
+    }
+
+    public static void logStart(LogSink sink) {
+        sink.log(">>> ML-HUI START <<<");
+    }
+
+    public static void logLevelStart(LogSink sink, int level) {
+        sink.log("\n--- DFS LEVEL " + level + " ---");
+    }
+
+    public static void logLevelResults(LogSink sink, int level, List<Hui> huis) {
+        sink.log("\n--- KẾT QUẢ TẠI LEVEL " + level + " ---");
+        if (huis.isEmpty()) {
+            sink.log("(Không tìm thấy tập mục nào thỏa mãn)");
+        } else {
+            for (int i = 0; i < huis.size(); i++) sink.log((i + 1) + ") " + format(huis.get(i)));
+        }
+    }
+
+    // Ném ra để thoát khỏi đệ quy khi chạm giới hạn; không cần stack trace
+    private static final class StopMining extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopMining() { super(null, null, false, false); }
+    }
+
     // ===== DỮ LIỆU CẤU TRÚC =====
     private List<Transaction> database = new ArrayList<>();
+    // Toàn bộ CSDL khi đang khai phá trên mẫu (database khi đó chỉ là mẫu)
+    private List<Transaction> fullDatabase = new ArrayList<>();
     private Map<String, Integer> extUtil = new HashMap<>();
     private Map<String, List<String>> taxonomy = new HashMap<>();
-    private Map<String, String> childToParent = new HashMap<>();
-    private Map<String, List<String>> leafDescendants = new HashMap<>();
-    private Map<String, Integer> itemLevels = new HashMap<>();
-    private List<String> foundHUIs = new ArrayList<>();
+    private TaxonomyIndex taxonomyIndex;
+    private List<Hui> foundHUIs = new ArrayList<>();
     private Map<String, Integer> twuGlobal = new HashMap<>();
     private Map<String, Map<String, Integer>> EUCS = new HashMap<>();
+    // Mật độ (số lần xuất hiện / (|D| * số mục)) từ đó AUTO chuyển sang bitset
+    private static final double DENSE_THRESHOLD = 0.25;
+    private Engine engine = Engine.AUTO;
+    // Cột utility/rutil dày theo tid của các mục đơn ở level hiện tại (chỉ dùng khi chạy bitset)
+    private int[][] colUtil = new int[0][];
+    private int[][] colRutil = new int[0][];
+    // Tập tid (bitset) của từng mục đơn theo thứ hạng, dùng để tính bao đóng khi chạy bitset
+    private long[][] colBits = new long[0][];
+    private final UtilityKernels kernels = UtilityKernels.get();
+    // Bộ đệm chỉ số khớp dùng lại giữa các lần nối
+    private int[] joinX = new int[0], joinY = new int[0];
+    private Storage storage = Storage.HEAP;
+    // Giao dịch chiếu của level hiện tại (CSR ngoài heap, chỉ dùng khi OFF_HEAP):
+    // hàng tid nằm trong [projOffsets[tid], projOffsets[tid + 1]) của projRanks/projUtils
+    private MemorySegment projOffsets = MemorySegment.NULL;
+    private MemorySegment projRanks = MemorySegment.NULL;
+    private MemorySegment projUtils = MemorySegment.NULL;
 
     private String transactionsText = "";
     private String externalUtilityText = "";
     private String taxonomyText = "";
     private LogSink logSink = s -> { };
+    private ProgressListener progressListener = (levelIndex, levelCount, done, total) -> { };
+    private volatile CancelToken cancelToken = new CancelToken();
+    private int levelIndex = 0, levelCount = 0;
+    private RunOptions options = new RunOptions();
+    private long deadlineNanos = Long.MAX_VALUE;
+    private long totalHUIs = 0;
+    private int heapCheckCountdown = 0;
+    private long lastHeapGcNanos = 0;
+    private Status stopStatus = null;
+    private OutputMode outputMode = OutputMode.ALL;
+    // Trạng thái của level hiện tại cho chế độ CLOSED/MAXIMAL
+    // Hàng của level trên heap, chỉ giữ khi CLOSED chạy với HEAP (OFF_HEAP đọc từ CSR ngoài heap)
+    private LevelDatabase levelDb;
+    private Map<String, Integer> levelRanks = new HashMap<>();
+    // inPrefix[r]: mục thứ hạng r thuộc tập đang xét (prefix cùng bao đóng của nó)
+    private boolean[] inPrefix = new boolean[0];
+    private int[] rowBuf = new int[0];
+    private long huisSeen = 0;
+    // HUI tối đại đã tìm được (bitset theo thứ hạng), đánh chỉ mục theo từng mục chứa trong đó
+    private Map<Integer, List<long[]>> maximalByItem = new HashMap<>();
+    // Chế độ mẫu: ngưỡng gốc và các ứng viên chờ kiểm chứng của level hiện tại
+    private boolean sampling = false;
+    private int targetMinUtil = 0;
+    private List<List<String>> sampleCandidates = new ArrayList<>();
+    private List<Integer> sampleCandidateBranches = new ArrayList<>();
+    private HuiListener huiListener = (level, branch, hui) -> { };
+    private int currentLevel = 0, currentBranch = 0;
+
+    public void setEngine(Engine engine) {
+        this.engine = engine == null ? Engine.AUTO : engine;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage == null ? Storage.HEAP : storage;
+    }
+
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode == null ? OutputMode.ALL : outputMode;
+    }
+
+    public void setHuiListener(HuiListener huiListener) {
+        this.huiListener = huiListener == null ? (level, branch, hui) -> { } : huiListener;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener == null ? (a, b, c, d) -> { } : progressListener;
+    }
+
+    // Có thể gọi từ luồng khác; hủy lần chạy hiện tại, run() dừng ở điểm kiểm tra gần nhất với
+    // trạng thái CANCELLED. Để hủy được cả trước khi run() bắt đầu, truyền RunOptions.cancelToken
+    public void cancel() {
+        cancelToken.cancel();
+    }
 
     public Result run(String transactionsText, String externalUtilityText, String taxonomyText,
                       int minUtil, LogSink logSink) {
-        this.transactionsText = transactionsText == null ? "" : transactionsText;
-        this.externalUtilityText = externalUtilityText == null ? "" : externalUtilityText;
-        this.taxonomyText = taxonomyText == null ? "" : taxonomyText;
+        return run(transactionsText, externalUtilityText, taxonomyText, minUtil, new RunOptions(), logSink);
+    }
+
+    public Result run(String transactionsText, String externalUtilityText, String taxonomyText,
+                      int minUtil, RunOptions options, LogSink logSink) {
+        long startTime = begin(options, logSink);
+        System.gc();
+        Dataset data;
+        try {
+            checkLimits();
+            data = load(transactionsText, externalUtilityText, taxonomyText);
+        } catch (StopMining stop) {
+            return stoppedWhileLoading(startTime);
+        }
+        return mineLevels(data, minUtil, startTime);
+    }
+
+    // Khai phá trên dữ liệu đã phân tích sẵn bằng parse(); data không bị sửa
+    public Result run(Dataset data, int minUtil, RunOptions options, LogSink logSink) {
+        long startTime = begin(options, logSink);
+        System.gc();
+        return mineLevels(data, minUtil, startTime);
+    }
+
+    // Phân tích dữ liệu, dựng chỉ mục taxonomy và tính TWU một lần để dùng lại cho nhiều lần chạy
+    public static Dataset parse(String transactionsText, String externalUtilityText, String taxonomyText) {
+        MLHUIMiner m = new MLHUIMiner();
+        m.begin(null, null);
+        return m.load(transactionsText, externalUtilityText, taxonomyText);
+    }
+
+    // Đặt lại trạng thái cho lần chạy mới, trả về thời điểm bắt đầu
+    private long begin(RunOptions options, LogSink logSink) {
+        this.options = options == null ? new RunOptions() : options;
         this.logSink = logSink == null ? s -> { } : logSink;
-        // Làm sạch dữ liệu trước khi chạy
-        database.clear();
-        extUtil.clear();
-        taxonomy.clear();
-        childToParent.clear();
-        leafDescendants.clear();
-        itemLevels.clear();
+        cancelToken = this.options.cancelToken != null ? this.options.cancelToken : new CancelToken();
+        stopStatus = null;
+        totalHUIs = 0;
+        heapCheckCountdown = 0;
+        // Làm sạch dữ liệu trước khi chạy; dữ liệu có thể thuộc một Dataset dùng chung nên thay mới, không clear()
+        database = new ArrayList<>();
+        fullDatabase = new ArrayList<>();
+        sampleCandidates.clear();
+        sampleCandidateBranches.clear();
+        extUtil = new HashMap<>();
+        taxonomy = new HashMap<>();
+        taxonomyIndex = null;
         EUCS.clear();
-        twuGlobal.clear();
+        twuGlobal = new HashMap<>();
         foundHUIs.clear();
-        log(">>> ML-HUI START <<<");
+        logStart(this.logSink);
         long startTime = System.nanoTime();
-        System.gc();
-        parseExternalUtility();
-        parseTaxonomy();
-        parseTransactions();
-        log("Bước 1: I ← tập hợp các mục trong D");
-        Set<String> I = new HashSet<>();
-        for (Transaction t : database) I.addAll(t.items.keySet());
-        log(" I: " + I);
-        log("Bước 2: GI ← tập hợp các mục tổng quát trong I");
-        Set<String> GT = new HashSet<>(taxonomy.keySet());
-        log(" GI: " + GT);
-        computeLevelsAndDescendants();
-        log("Bước 3-4: Tính TWU của các mặt hàng trong I và GI");
-        twuGlobal = computeTWU();
+        deadlineNanos = this.options.timeLimitMs > 0
+                ? startTime + this.options.timeLimitMs * 1_000_000 : Long.MAX_VALUE;
+        return startTime;
+    }
+
+    private Dataset load(String transactionsText, String externalUtilityText, String taxonomyText) {
+        this.transactionsText = transactionsText == null ? "" : transactionsText;
+        this.externalUtilityText = externalUtilityText == null ? "" : externalUtilityText;
+        this.taxonomyText = taxonomyText == null ? "" : taxonomyText;
+        try {
+            parseExternalUtility();
+            parseTaxonomy();
+            parseTransactions();
+            buildTaxonomyIndex();
+            return new Dataset(database, extUtil, taxonomy, taxonomyIndex, computeTWU());
+        } finally {
+            // Không giữ văn bản gốc sau khi đã phân tích
+            this.transactionsText = this.externalUtilityText = this.taxonomyText = "";
+        }
+    }
+
+    private Result stoppedWhileLoading(long startTime) {
+        log("\n!!! Dừng sớm (" + stopStatus + ") khi đang đọc dữ liệu, chưa khai phá level nào");
+        if (sampling) database = fullDatabase;
+        long memKb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024;
+        return new Result((System.nanoTime() - startTime) / 1_000_000, memKb, stopStatus, sampling,
+                Collections.emptyMap());
+    }
+
+    private Result mineLevels(Dataset data, int minUtil, long startTime) {
+        database = data.transactions;
+        extUtil = data.extUtil;
+        taxonomy = data.taxonomy;
+        taxonomyIndex = data.taxonomyIndex;
+        Map<Integer, List<Hui>> huisByLevel = new LinkedHashMap<>();
+        targetMinUtil = minUtil;
+        sampling = false;
+        try {
+            checkLimits();
+            log("Bước 1: I ← tập hợp các mục trong D");
+            log(" I: " + data.items);
+            log("Bước 2: GI ← tập hợp các mục tổng quát trong I");
+            Set<String> GT = new HashSet<>(taxonomy.keySet());
+            log(" GI: " + GT);
+            sampling = this.options.sampleFraction > 0 && this.options.sampleFraction < 1 && !database.isEmpty();
+            if (sampling) minUtil = drawSample(minUtil);
+            log("Bước 3-4: Tính TWU của các mặt hàng trong I và GI");
+            // Trên mẫu TWU phải tính lại; chạy chính xác dùng TWU đã tính sẵn của Dataset
+            twuGlobal = sampling ? computeTWU() : data.twu;
+        } catch (StopMining stop) {
+            return stoppedWhileLoading(startTime);
+        }
         for (String item : twuGlobal.keySet()) {
             log(" TWU(" + item + ") = " + twuGlobal.get(item));
         }
         Map<Integer, Integer> levelThr = new HashMap<>();
-        int maxLevel = 0;
-        for (int l : itemLevels.values()) maxLevel = Math.max(maxLevel, l);
+        int maxLevel = taxonomyIndex.maxLevel();
         for (int l = 0; l <= maxLevel; l++) levelThr.put(l, minUtil);
         log("Bước 5-6: Lọc các mục (I*) và các mục tổng quát (GT*) dựa trên ngưỡng TWU và cấp độ");
         Map<Integer, List<String>> itemsByLevel = new HashMap<>();
+        Map<Integer, Long> maxTwuByLevel = new HashMap<>();
         for (String item : twuGlobal.keySet()) {
-            int level = itemLevels.getOrDefault(item, 0);
+            int level = taxonomyIndex.level(item);
+            maxTwuByLevel.merge(level, (long) twuGlobal.get(item), Math::max);
             if (twuGlobal.get(item) >= levelThr.get(level)) {
                 itemsByLevel.computeIfAbsent(level, k -> new ArrayList<>()).add(item);
                 log("[KEEP L" + level + "] " + item + " TWU=" + twuGlobal.get(item));
@@ -84,36 +412,84 @@ public class MLHUIMiner {
         log("Bước 7: Xây dựng danh sách hữu ích(utility list) ban đầu và cấu trúc EUCS");
         // ===== BƯỚC 8: ĐỆ QUY TẠO TỔ HỢP VÀ KHAI PHÁ =====
         log("Bước 8: Tạo tổ hợp đệ quy và lựa chọn");
+        log(" Kernel: " + kernels.description());
        
         List<Integer> sortedLevels = new ArrayList<>(itemsByLevel.keySet());
         Collections.sort(sortedLevels);
+        levelCount = sortedLevels.size();
+        levelIndex = 0;
         for (int level : sortedLevels) {
-            log("\n--- DFS LEVEL " + level + " ---");
+            progressListener.progress(levelIndex, levelCount, 0, 1);
+            logLevelStart(this.logSink, level);
             EUCS.clear();
+            currentLevel = level;
            
-            // Xây dựng danh sách cơ sở cho tầng này
-            List<UtilityList> ULs = buildUtilityLists(itemsByLevel.get(level));
-            logUtilityLists(ULs);
-            logEUCS();
-           
-            // Bắt đầu đệ quy tạo tổ hợp
-            mine(new ArrayList<>(), ULs, levelThr.get(level), level);
-            // Đưa kết quả ra sau khi đã đệ quy xong toàn bộ tổ hợp của level đó
-            log("\n--- KẾT QUẢ TẠI LEVEL " + level + " ---");
-            if (foundHUIs.isEmpty()) {
-                log("(Không tìm thấy tập mục nào thỏa mãn)");
-            } else {
-                for (int i = 0; i < foundHUIs.size(); i++) {
-                    log((i + 1) + ") " + foundHUIs.get(i));
+            // Arena của level được giải phóng ngay khi level khai phá xong
+            Arena levelArena = storage == Storage.OFF_HEAP ? Arena.ofConfined() : null;
+            try {
+                // Rút gọn CSDL của tầng này rồi xây dựng danh sách cơ sở
+                int n;
+                List<UtilityList> ULs;
+                if (levelArena != null) {
+                    // OFF_HEAP: giao dịch chiếu được ghi thẳng vào CSR ngoài heap, không dựng bản trên heap
+                    List<String> kept = reduceLevelOffHeap(itemsByLevel.get(level), levelThr.get(level), level, levelArena);
+                    n = projRowCount();
+                    ULs = buildOffHeapUtilityLists(kept, levelArena);
+                    startOutputMode(kept);
+                } else {
+                    LevelDatabase db = reduceLevel(itemsByLevel.get(level), levelThr.get(level), level);
+                    n = db.size();
+                    ULs = buildUtilityLists(db);
+                    startOutputMode(db.items);
+                    levelDb = outputMode == OutputMode.CLOSED ? db : null;
                 }
+                logUtilityLists(ULs);
+                logEUCS();
+                ULs = selectEngine(ULs, level, n);
+
+                // Bắt đầu đệ quy tạo tổ hợp
+                mine(new ArrayList<>(), ULs, levelThr.get(level), level);
+            } catch (StopMining stop) {
+                log("\n!!! Dừng sớm (" + stopStatus + "): kết quả level " + level + " chưa đầy đủ");
+            } finally {
+                if (levelArena != null) levelArena.close();
+                projOffsets = projRanks = projUtils = MemorySegment.NULL;
+            }
+            // Ứng viên mẫu đã thu được vẫn được kiểm chứng khi dừng sớm, trừ khi bị hủy
+            if (sampling && options.sampleVerify && stopStatus != Status.CANCELLED) {
+                try {
+                    verifySampleCandidates(level);
+                } catch (StopMining stop) {
+                    log("\n!!! Dừng sớm (" + stopStatus + ") khi kiểm chứng level " + level);
+                }
+            }
+            // Đưa kết quả ra sau khi đã đệ quy xong toàn bộ tổ hợp của level đó
+            if (options.keepResults) {
+                logLevelResults(this.logSink, level, foundHUIs);
+                huisByLevel.put(level, Collections.unmodifiableList(new ArrayList<>(foundHUIs)));
             }
             foundHUIs.clear(); // Xóa cho level tiếp theo
+            sampleCandidates.clear();
+            sampleCandidateBranches.clear();
+            levelIndex++;
+            colUtil = new int[0][];
+            colRutil = new int[0][];
+            colBits = new long[0][];
+            levelDb = null;
+            maximalByItem = new HashMap<>();
+            if (stopStatus != null) {
+                log("Bỏ qua các level còn lại");
+                break;
+            }
         }
+        progressListener.progress(levelCount, levelCount, 1, 1);
         long timeMs = (System.nanoTime() - startTime) / 1_000_000;
         long memKb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024;
        
         // Trả về kết quả cho hàm gọi (thường là main sẽ in Performance)
-        return new Result(timeMs, memKb);
+        if (sampling) database = fullDatabase;
+        return new Result(timeMs, memKb, stopStatus == null ? Status.COMPLETED : stopStatus, sampling,
+                Collections.unmodifiableMap(huisByLevel), Collections.unmodifiableMap(maxTwuByLevel));
     }
     private void logUtilityLists(List<UtilityList> ULs) {
         for (UtilityList ul : ULs) log(" Utility(" + ul.item + ")= " + ul.sumIutil);
@@ -126,152 +502,777 @@ public class MLHUIMiner {
             }
         }
     }
-    private void computeLevelsAndDescendants() {
-        Set<String> allPrimitives = new HashSet<>();
+    private void buildTaxonomyIndex() {
+        Set<String> allPrimitives = new LinkedHashSet<>();
         for (Transaction t : database) allPrimitives.addAll(t.items.keySet());
         allPrimitives.addAll(extUtil.keySet());
-        for (String i : allPrimitives) {
-            if (!taxonomy.containsKey(i)) {
-                itemLevels.put(i, 0);
-                leafDescendants.put(i, Collections.singletonList(i));
-            }
-        }
-        for (String g : taxonomy.keySet()) {
-            computeLevel(g);
-            computeDescendants(g);
-        }
-    }
-    private int computeLevel(String node) {
-        if (itemLevels.containsKey(node)) return itemLevels.get(node);
-        if (!taxonomy.containsKey(node)) return 0;
-        int minChildLevel = Integer.MAX_VALUE;
-        for (String child : taxonomy.get(node)) minChildLevel = Math.min(minChildLevel, computeLevel(child));
-        int level = 1 + (minChildLevel == Integer.MAX_VALUE ? -1 : minChildLevel);
-        itemLevels.put(node, level);
-        return level;
-    }
-    private List<String> computeDescendants(String node) {
-        if (leafDescendants.containsKey(node)) return leafDescendants.get(node);
-        if (!taxonomy.containsKey(node)) {
-            List<String> list = Collections.singletonList(node);
-            leafDescendants.put(node, list);
-            return list;
-        }
-        List<String> desc = new ArrayList<>();
-        for (String child : taxonomy.get(node)) desc.addAll(computeDescendants(child));
-        leafDescendants.put(node, desc);
-        return desc;
+        taxonomyIndex = new TaxonomyIndex(taxonomy, allPrimitives);
+        int rows = 0;
+        for (Transaction t : database) {
+            if ((++rows & 1023) == 0) checkLimits();
+            t.index(taxonomyIndex);
+        }
     }
     // ===== HÀM MINE ĐỆ QUY TẠO TỔ HỢP =====
     private void mine(List<String> prefix, List<UtilityList> ULs, int minUtil, int level) {
         for (int i = 0; i < ULs.size(); i++) {
+            checkLimits();
+            if (prefix.isEmpty()) {
+                progressListener.progress(levelIndex, levelCount, i, ULs.size());
+                if (options.partitionCount > 1 && i % options.partitionCount != options.partitionIndex) continue;
+                currentBranch = i;
+            }
             UtilityList X = ULs.get(i);
             List<String> newPrefix = new ArrayList<>(prefix);
             newPrefix.add(X.item);
             // 1. So sánh với ngưỡng minUtil để chọn HUI
-            if (X.sumIutil >= minUtil) {
-                foundHUIs.add(newPrefix.toString() + " = " + X.sumIutil);
+            boolean isHUI = X.sumIutil >= minUtil;
+            if (isHUI) huisSeen++;
+            if (outputMode == OutputMode.CLOSED) {
+                mineClosed(newPrefix, ULs, i, isHUI, minUtil, level);
+                continue;
+            } else if (outputMode == OutputMode.ALL && isHUI) {
+                report(newPrefix, X);
             }
+            long seenBefore = huisSeen;
             // 2. Cắt tỉa nhánh dựa trên Upper-bound (iutil + rutil)
-            if (X.sumIutil + X.sumRutil < minUtil) continue;
-            // 3. Tạo các tổ hợp lớn hơn (n+1)
-            List<UtilityList> exULs = new ArrayList<>();
-            for (int j = i + 1; j < ULs.size(); j++) {
-                UtilityList Y = ULs.get(j);
+            if (X.sumIutil + X.sumRutil < minUtil) {
+                if (outputMode == OutputMode.MAXIMAL && isHUI) reportIfMaximal(newPrefix, X);
+                continue;
+            }
+            // Các tổ hợp mở rộng từ X ngoài heap sống trong arena riêng, đóng khi nhánh X kết thúc
+            Arena frame = X instanceof OffHeapUtilityList ? Arena.ofConfined() : null;
+            try {
+                // 3. Tạo các tổ hợp lớn hơn (n+1)
+                List<UtilityList> exULs = new ArrayList<>();
+                for (int j = i + 1; j < ULs.size(); j++) {
+                    UtilityList Y = ULs.get(j);
                
-                // KIỂM TRA EUCS TRƯỚC KHI NỐI (JOIN)
-                Map<String, Integer> subMap = EUCS.get(X.item);
-                Integer eucsVal = (subMap != null) ? subMap.get(Y.item) : null;
-                if (eucsVal != null) {
-                    if (eucsVal < minUtil) {
-                        log("Loại " + X.item + " " + Y.item + " vì (TU =" + eucsVal + " < minUtil)");
+                    // KIỂM TRA EUCS TRƯỚC KHI NỐI (JOIN)
+                    Map<String, Integer> subMap = EUCS.get(X.item);
+                    Integer eucsVal = (subMap != null) ? subMap.get(Y.item) : null;
+                    if (eucsVal != null) {
+                        if (eucsVal < minUtil) {
+                            log("Loại " + X.item + " " + Y.item + " vì (TU =" + eucsVal + " < minUtil)");
+                            continue;
+                        }
+                    } else {
+                        // Nếu không có trong EUCS (như Water Coke), im lặng bỏ qua vì chúng không bao giờ đi cùng nhau
                         continue;
                     }
-                } else {
-                    // Nếu không có trong EUCS (như Water Coke), im lặng bỏ qua vì chúng không bao giờ đi cùng nhau
+                    // Thực hiện nối để tạo tổ hợp mới
+                    UtilityList XY = construct(X, Y, frame);
+                    if (!XY.isEmpty()) exULs.add(XY);
+                }
+                // MAXIMAL: nếu X cùng mọi mục mở rộng đã nằm trong một HUI tối đại thì bỏ qua cả nhánh
+                if (outputMode == OutputMode.MAXIMAL && !exULs.isEmpty() && isSubsumed(newPrefix, exULs)) continue;
+                // Đệ quy tiếp tục vào sâu hơn
+                mine(newPrefix, exULs, minUtil, level);
+            } finally {
+                if (frame != null) frame.close();
+            }
+            // Mọi tập cha của X đã được duyệt trước thời điểm này (hậu thứ tự)
+            if (outputMode == OutputMode.MAXIMAL && isHUI && huisSeen == seenBefore) reportIfMaximal(newPrefix, X);
+        }
+    }
+    private void report(List<String> itemset, UtilityList X) {
+        if (!sampling) {
+            addHUI(new Hui(itemset, X.sumIutil), currentBranch);
+        } else if (options.sampleVerify) {
+            sampleCandidates.add(itemset);
+            sampleCandidateBranches.add(currentBranch);
+        } else {
+            // Ước lượng utility trên toàn CSDL; bỏ tập mà cả cận trên tin cậy vẫn dưới ngưỡng
+            long[] est = estimateUtility(X);
+            if (est[0] + est[1] < targetMinUtil) return;
+            addHUI(new Hui(itemset, est[0], true, est[1]), currentBranch);
+        }
+    }
+    // Chỉ HUI đã đưa ra (ứng viên mẫu đã kiểm chứng) mới tính vào maxResults
+    private void addHUI(Hui hui, int branch) {
+        if (options.keepResults) foundHUIs.add(hui);
+        huiListener.found(currentLevel, branch, hui);
+        if (++totalHUIs >= options.maxResults && options.maxResults > 0) stop(Status.RESULT_LIMIT);
+    }
+    private void startOutputMode(List<String> items) {
+        huisSeen = 0;
+        maximalByItem = new HashMap<>();
+        levelRanks = new HashMap<>();
+        for (int r = 0; r < items.size(); r++) levelRanks.put(items.get(r), r);
+        inPrefix = new boolean[items.size()];
+        rowBuf = new int[items.size()];
+    }
+    // Hàng tid của CSDL chiếu level hiện tại: levelDb trên heap, hoặc CSR ngoài heap khi OFF_HEAP
+    private int rowLength(int tid) {
+        if (levelDb != null) return levelDb.ranks[tid].length;
+        return (int) (projOffsets.getAtIndex(JAVA_LONG, tid + 1) - projOffsets.getAtIndex(JAVA_LONG, tid));
+    }
+    // Thứ hạng các mục của hàng tid (ngoài heap: chép vào rowBuf, độ dài lấy từ rowLength)
+    private int[] rowRanks(int tid) {
+        if (levelDb != null) return levelDb.ranks[tid];
+        long from = projOffsets.getAtIndex(JAVA_LONG, tid);
+        int len = (int) (projOffsets.getAtIndex(JAVA_LONG, tid + 1) - from);
+        MemorySegment.copy(projRanks, JAVA_INT, from * JAVA_INT.byteSize(), rowBuf, 0, len);
+        return rowBuf;
+    }
+    // CLOSED theo kiểu LCM: từ X nhảy thẳng tới bao đóng C(X) rồi chỉ mở rộng bằng các mục đứng sau X
+    // không thuộc C(X). Bao đóng chứa mục đứng trước X thì tập đóng đó đã được duyệt ở nhánh khác.
+    private void mineClosed(List<String> itemset, List<UtilityList> ULs, int i, boolean isHUI, int minUtil, int level) {
+        UtilityList X = ULs.get(i);
+        boolean extendable = X.sumIutil + X.sumRutil >= minUtil;
+        // Không phải HUI và không mở rộng được: u(C(X)) <= iutil + rutil < minUtil nên không cần tính bao đóng
+        if (!isHUI && !extendable) return;
+        int last = levelRanks.get(X.item);
+        inPrefix[last] = true;
+        int[] extra = null;
+        Arena frame = X instanceof OffHeapUtilityList ? Arena.ofConfined() : null;
+        try {
+            extra = closureExtras(X, last);
+            if (extra == null) return;
+            UtilityList C = X;
+            int j = i + 1;
+            for (int c : extra) inPrefix[c] = true;
+            for (int c : extra) {
+                while (j < ULs.size() && levelRanks.get(ULs.get(j).item) < c) j++;
+                // Mục của bao đóng đã bị EUCS loại khỏi các mục mở rộng: TU của X đã dưới minUtil
+                if (j == ULs.size() || levelRanks.get(ULs.get(j).item) != c) return;
+                C = construct(C, ULs.get(j), frame);
+                itemset.add(ULs.get(j).item);
+            }
+            if (C.sumIutil >= minUtil) report(itemset, C);
+            if (!extendable) return;
+            Map<String, Integer> subMap = EUCS.get(X.item);
+            List<UtilityList> exULs = new ArrayList<>();
+            for (j = i + 1; j < ULs.size(); j++) {
+                UtilityList Y = ULs.get(j);
+                if (inPrefix[levelRanks.get(Y.item)]) continue;
+                Integer eucsVal = (subMap != null) ? subMap.get(Y.item) : null;
+                if (eucsVal == null) continue;
+                if (eucsVal < minUtil) {
+                    log("Loại " + X.item + " " + Y.item + " vì (TU =" + eucsVal + " < minUtil)");
                     continue;
                 }
-                // Thực hiện nối để tạo tổ hợp mới
-                UtilityList XY = construct(X, Y);
-                if (!XY.nodes.isEmpty()) exULs.add(XY);
+                UtilityList CY = construct(C, Y, frame);
+                if (!CY.isEmpty()) exULs.add(CY);
             }
-            // Đệ quy tiếp tục vào sâu hơn
-            mine(newPrefix, exULs, minUtil, level);
+            mine(itemset, exULs, minUtil, level);
+        } finally {
+            inPrefix[last] = false;
+            if (extra != null) for (int c : extra) inPrefix[c] = false;
+            if (frame != null) frame.close();
         }
     }
-    private List<UtilityList> buildUtilityLists(List<String> items) {
-        items.sort(Comparator.comparingInt(a -> twuGlobal.getOrDefault(a, 0)));
-        List<UtilityList> list = new ArrayList<>();
-        Map<String, UtilityList> map = new HashMap<>();
-        for (String i : items) {
-            UtilityList ul = new UtilityList(i);
-            list.add(ul);
-            map.put(i, ul);
+    // Các mục ngoài tập đang xét có mặt trong mọi giao dịch chứa X (thứ hạng tăng dần), lấy giao
+    // các hàng theo tid và dừng ngay khi giao rỗng; null nếu trong đó có mục đứng trước X
+    private int[] closureExtras(UtilityList X, int last) {
+        int n = X.size();
+        if (n == 0) return new int[0];
+        int first = X.tid(0);
+        int[] cand = new int[rowLength(first)], row = rowRanks(first);
+        int len = 0;
+        for (int k = 0; k < cand.length; k++) if (!inPrefix[row[k]]) cand[len++] = row[k];
+        if (X instanceof BitsetUtilityList B) {
+            // Mục r thuộc bao đóng khi tập tid của X nằm trong tập tid của r
+            int kept = 0;
+            for (int q = 0; q < len; q++) {
+                long[] col = colBits[cand[q]];
+                boolean subset = true;
+                for (int w = 0; w < B.bits.length && subset; w++) subset = (B.bits[w] & ~col[w]) == 0;
+                if (!subset) continue;
+                if (cand[q] < last) return null;
+                cand[kept++] = cand[q];
+            }
+            len = kept;
+        } else {
+            for (int k = 1; k < n && len > 0; k++) len = retainRow(cand, len, X.tid(k));
+        }
+        if (len > 0 && cand[0] < last) return null;
+        return Arrays.copyOf(cand, len);
+    }
+    // Giữ lại các thứ hạng trong cand có mặt ở hàng tid (hàng sắp theo thứ hạng tăng dần)
+    private int retainRow(int[] cand, int len, int tid) {
+        int rowLen = rowLength(tid), lo = 0, kept = 0;
+        int[] row = rowRanks(tid);
+        for (int q = 0; q < len; q++) {
+            int r = cand[q];
+            lo = Arrays.binarySearch(row, lo, rowLen, r);
+            if (lo >= 0) cand[kept++] = r;
+            else lo = -lo - 1;
+        }
+        return kept;
+    }
+    private long[] rankBits(List<String> itemset, List<UtilityList> extra) {
+        long[] bits = new long[(levelRanks.size() + 63) >>> 6];
+        for (String item : itemset) {
+            int r = levelRanks.get(item);
+            bits[r >>> 6] |= 1L << r;
+        }
+        for (UtilityList ul : extra) {
+            int r = levelRanks.get(ul.item);
+            bits[r >>> 6] |= 1L << r;
+        }
+        return bits;
+    }
+    private boolean isSubsumed(List<String> itemset, List<UtilityList> extra) {
+        long[] q = rankBits(itemset, extra);
+        List<long[]> candidates = maximalByItem.get(levelRanks.get(itemset.get(itemset.size() - 1)));
+        if (candidates == null) return false;
+        for (long[] m : candidates) {
+            boolean subset = true;
+            for (int w = 0; w < q.length && subset; w++) subset = (q[w] & ~m[w]) == 0;
+            if (subset) return true;
+        }
+        return false;
+    }
+    private void reportIfMaximal(List<String> itemset, UtilityList X) {
+        if (isSubsumed(itemset, Collections.emptyList())) return;
+        long[] bits = rankBits(itemset, Collections.emptyList());
+        for (String item : itemset) maximalByItem.computeIfAbsent(levelRanks.get(item), k -> new ArrayList<>()).add(bits);
+        report(itemset, X);
+    }
+    // Lấy mẫu n = f * N giao dịch (ngẫu nhiên đơn giản hoặc phân tầng tỉ lệ), trả về ngưỡng đã co giãn
+    private int drawSample(int minUtil) {
+        int N = database.size();
+        Random rnd = new Random(options.sampleSeed);
+        List<List<Integer>> strata = new ArrayList<>();
+        if (options.sampleStratified) {
+            Map<Integer, List<Integer>> byTu = new TreeMap<>();
+            for (int tid = 0; tid < N; tid++) {
+                int key = 32 - Integer.numberOfLeadingZeros(Math.max(0, database.get(tid).tu));
+                byTu.computeIfAbsent(key, k -> new ArrayList<>()).add(tid);
+            }
+            strata.addAll(byTu.values());
+        } else {
+            List<Integer> all = new ArrayList<>(N);
+            for (int tid = 0; tid < N; tid++) all.add(tid);
+            strata.add(all);
         }
+        // Phân bổ theo tỉ lệ, phần dư làm tròn cho các tầng có phần lẻ lớn nhất
+        int n = Math.max(1, (int) Math.round(options.sampleFraction * N));
+        int[] take = new int[strata.size()];
+        double[] frac = new double[strata.size()];
+        int assigned = 0;
+        for (int h = 0; h < strata.size(); h++) {
+            double exact = (double) n * strata.get(h).size() / N;
+            take[h] = (int) exact;
+            frac[h] = exact - take[h];
+            assigned += take[h];
+        }
+        Integer[] order = new Integer[strata.size()];
+        for (int h = 0; h < order.length; h++) order[h] = h;
+        Arrays.sort(order, (a, b) -> Double.compare(frac[b], frac[a]));
+        for (int k = 0; assigned < n; k++, assigned++) take[order[k]]++;
+        boolean[] chosen = new boolean[N];
+        for (int h = 0; h < strata.size(); h++) {
+            List<Integer> s = strata.get(h);
+            // Fisher-Yates một phần: take[h] phần tử đầu sau khi xáo là mẫu của tầng
+            for (int k = 0; k < take[h]; k++) {
+                int j = k + rnd.nextInt(s.size() - k);
+                Collections.swap(s, k, j);
+                chosen[s.get(k)] = true;
+            }
+        }
+        fullDatabase = database;
+        database = new ArrayList<>(n);
+        for (int tid = 0; tid < N; tid++) if (chosen[tid]) database.add(fullDatabase.get(tid));
+        int scaled = Math.max(1, (int) Math.floor(minUtil * ((double) n / N) * (1 - options.sampleSlack)));
+        log(" Mẫu: " + n + "/" + N + " giao dịch (" + (options.sampleStratified ? "phân tầng theo TU" : "ngẫu nhiên")
+                + ", seed = " + options.sampleSeed + "), minUtil trên mẫu = " + scaled);
+        return scaled;
+    }
+    // Ước lượng {utility, nửa độ rộng khoảng tin cậy} trên toàn CSDL từ utility list trên mẫu.
+    // Phương sai theo mẫu ngẫu nhiên đơn giản có hiệu chỉnh quần thể hữu hạn (với mẫu phân tầng
+    // tỉ lệ, phương sai thật không lớn hơn nên khoảng là thận trọng).
+    private long[] estimateUtility(UtilityList X) {
+        int N = fullDatabase.size(), n = database.size();
+        double scale = (double) N / n;
+        double sum = 0, sumSq = 0;
+        for (int k = 0; k < X.size(); k++) {
+            double u = X.iutil(k);
+            sum += u;
+            sumSq += u * u;
+        }
+        double variance = n > 1 ? Math.max(0, (sumSq - sum * sum / n) / (n - 1)) : 0;
+        double half = options.sampleZ * N * Math.sqrt((1 - (double) n / N) * variance / n);
+        return new long[] { Math.round(sum * scale), (long) Math.ceil(half) };
+    }
+    // Tính utility chính xác của các ứng viên trên toàn CSDL bằng cách nối utility list của từng mục
+    private void verifySampleCandidates(int level) {
+        Map<String, UtilityList> full = new HashMap<>();
+        int kept = 0;
+        for (int c = 0; c < sampleCandidates.size(); c++) {
+            checkVerifyLimits();
+            List<String> itemset = sampleCandidates.get(c);
+            UtilityList X = null;
+            for (String item : itemset) {
+                UtilityList Y = full.computeIfAbsent(item, this::fullUtilityList);
+                X = X == null ? Y : construct(X, Y, null);
+            }
+            if (X.sumIutil >= targetMinUtil) {
+                addHUI(new Hui(itemset, X.sumIutil), sampleCandidateBranches.get(c));
+                kept++;
+            }
+        }
+        log(" Kiểm chứng L" + level + ": " + sampleCandidates.size() + " ứng viên, giữ " + kept
+                + ", loại " + (sampleCandidates.size() - kept));
+    }
+    private UtilityList fullUtilityList(String item) {
+        UtilityList ul = new UtilityList(item);
+        for (int tid = 0; tid < fullDatabase.size(); tid++) {
+            if ((tid & 1023) == 0) checkVerifyLimits();
+            int u = utilityOf(item, fullDatabase.get(tid));
+            if (u > 0) ul.add(tid, u, 0, u);
+        }
+        return ul;
+    }
+    // Chiếu CSD L lên các mục của level rồi lặp đến điểm bất động: bỏ mục có TWU (tính theo
+    // utility giao dịch đã rút gọn) < minUtil, tính lại TU và TWU. Sau đó bỏ giao dịch rỗng
+    // và gộp các giao dịch trùng tập mục (cộng dồn utility).
+    private LevelDatabase reduceLevel(List<String> items, int minUtil, int level) {
+        items.sort(Comparator.comparingInt(a -> twuGlobal.getOrDefault(a, 0)));
+        int m = items.size();
+        int[] rowRank = new int[m], rowUtil = new int[m];
+        List<int[]> ranks = new ArrayList<>(), utils = new ArrayList<>();
         for (int tid = 0; tid < database.size(); tid++) {
-            Transaction t = database.get(tid);
-            List<String> present = new ArrayList<>();
-            for (String i : items) if (utilityOf(i, t) > 0) present.add(i);
-           
-            present.sort(Comparator.comparingInt(a -> twuGlobal.getOrDefault(a, 0)));
-            for (int i = 0; i < present.size(); i++) {
-                String item = present.get(i);
-                int iutil = utilityOf(item, t);
-                int rutil = 0;
-                for (int j = i + 1; j < present.size(); j++) rutil += utilityOf(present.get(j), t);
-                map.get(item).add(new ULNode(tid, iutil, rutil));
+            if ((tid & 1023) == 0) checkLimits();
+            int len = projectRow(items, database.get(tid), rowRank, rowUtil);
+            if (len == 0) continue;
+            ranks.add(Arrays.copyOf(rowRank, len));
+            utils.add(Arrays.copyOf(rowUtil, len));
+        }
+        boolean[] alive = new boolean[m];
+        Arrays.fill(alive, true);
+        int removed = 0, rounds = 0;
+        while (true) {
+            checkLimits();
+            rounds++;
+            long[] twu = new long[m];
+            for (int t = 0; t < ranks.size(); t++) {
+                int[] r = ranks.get(t), u = utils.get(t);
+                long tu = 0;
+                for (int k = 0; k < r.length; k++) if (alive[r[k]]) tu += u[k];
+                for (int k = 0; k < r.length; k++) if (alive[r[k]]) twu[r[k]] += tu;
+            }
+            int dropped = 0;
+            for (int r = 0; r < m; r++) {
+                if (alive[r] && twu[r] < minUtil) {
+                    alive[r] = false;
+                    dropped++;
+                    log("[DROP L" + level + "] " + items.get(r) + " TWU'=" + twu[r]);
+                }
+            }
+            removed += dropped;
+            if (dropped == 0) break;
+        }
+        // Đánh lại thứ hạng cho các mục còn lại (giữ thứ tự TWU ban đầu)
+        int[] newRank = new int[m];
+        List<String> kept = new ArrayList<>();
+        for (int r = 0; r < m; r++) {
+            newRank[r] = alive[r] ? kept.size() : -1;
+            if (alive[r]) kept.add(items.get(r));
+        }
+        Map<RowKey, Integer> rowIndex = new HashMap<>();
+        List<int[]> outRanks = new ArrayList<>(), outUtils = new ArrayList<>();
+        for (int t = 0; t < ranks.size(); t++) {
+            int[] r = ranks.get(t), u = utils.get(t);
+            int len = 0;
+            for (int k = 0; k < r.length; k++) {
+                if (!alive[r[k]]) continue;
+                rowRank[len] = newRank[r[k]];
+                rowUtil[len++] = u[k];
+            }
+            if (len == 0) continue;
+            RowKey key = new RowKey(Arrays.copyOf(rowRank, len));
+            // Trên mẫu giữ nguyên từng giao dịch để phương sai ước lượng tính đúng theo giao dịch
+            Integer existing = sampling ? null : rowIndex.get(key);
+            if (existing != null) {
+                int[] sum = outUtils.get(existing);
+                for (int k = 0; k < len; k++) sum[k] += rowUtil[k];
+            } else {
+                rowIndex.put(key, outRanks.size());
+                outRanks.add(key.ranks);
+                outUtils.add(Arrays.copyOf(rowUtil, len));
+            }
+        }
+        log(" Rút gọn L" + level + ": " + rounds + " vòng, bỏ " + removed + " mục, giao dịch "
+                + database.size() + " -> " + outRanks.size());
+        return new LevelDatabase(kept, outRanks.toArray(new int[0][]), outUtils.toArray(new int[0][]));
+    }
+    private List<UtilityList> buildUtilityLists(LevelDatabase db) {
+        List<UtilityList> list = new ArrayList<>();
+        for (String i : db.items) list.add(new UtilityList(i));
+        for (int tid = 0; tid < db.size(); tid++) {
+            if ((tid & 1023) == 0) checkLimits();
+            int[] rowRank = db.ranks[tid], rowUtil = db.utils[tid];
+            int len = rowRank.length;
+            int tu = db.tu[tid];
+            int rutil = tu;
+            for (int i = 0; i < len; i++) {
+                String item = db.items.get(rowRank[i]);
+                int iutil = rowUtil[i];
+                rutil -= iutil;
+                list.get(rowRank[i]).add(tid, iutil, rutil, iutil);
                
-                for (int j = i + 1; j < present.size(); j++) {
-                    String b = present.get(j);
+                for (int j = i + 1; j < len; j++) {
+                    String b = db.items.get(rowRank[j]);
                     EUCS.computeIfAbsent(item, k -> new HashMap<>());
-                    EUCS.get(item).put(b, EUCS.get(item).getOrDefault(b, 0) + t.tu);
+                    EUCS.get(item).put(b, EUCS.get(item).getOrDefault(b, 0) + tu);
                 }
             }
         }
         return list;
     }
-    private UtilityList construct(UtilityList X, UtilityList Y) {
-        UtilityList XY = new UtilityList(Y.item);
+    // Bản ngoài heap của reduceLevel: lượt 1 đếm, lượt 2 ghi giao dịch chiếu vào arena tạm; rút gọn TWU
+    // trên đó rồi ghi các hàng còn lại (gộp hàng trùng) vào projOffsets/projRanks/projUtils của level
+    private List<String> reduceLevelOffHeap(List<String> items, int minUtil, int level, Arena arena) {
+        items.sort(Comparator.comparingInt(a -> twuGlobal.getOrDefault(a, 0)));
+        int m = items.size();
+        int[] rowRank = new int[m], rowUtil = new int[m];
+        int rows = 0;
+        long total = 0;
+        for (int tid = 0; tid < database.size(); tid++) {
+            if ((tid & 1023) == 0) checkLimits();
+            int len = projectRow(items, database.get(tid), rowRank, rowUtil);
+            if (len == 0) continue;
+            rows++;
+            total += len;
+        }
+        try (Arena raw = Arena.ofConfined()) {
+            MemorySegment rawOff = raw.allocate(JAVA_LONG.byteSize() * (rows + 1), JAVA_LONG.byteAlignment());
+            MemorySegment rawRank = raw.allocate(JAVA_INT.byteSize() * Math.max(total, 1), JAVA_INT.byteAlignment());
+            MemorySegment rawUtil = raw.allocate(JAVA_INT.byteSize() * Math.max(total, 1), JAVA_INT.byteAlignment());
+            long pos = 0;
+            int r = 0;
+            for (int tid = 0; tid < database.size(); tid++) {
+                if ((tid & 1023) == 0) checkLimits();
+                int len = projectRow(items, database.get(tid), rowRank, rowUtil);
+                if (len == 0) continue;
+                rawOff.setAtIndex(JAVA_LONG, r++, pos);
+                for (int k = 0; k < len; k++, pos++) {
+                    rawRank.setAtIndex(JAVA_INT, pos, rowRank[k]);
+                    rawUtil.setAtIndex(JAVA_INT, pos, rowUtil[k]);
+                }
+            }
+            rawOff.setAtIndex(JAVA_LONG, rows, pos);
+            boolean[] alive = new boolean[m];
+            Arrays.fill(alive, true);
+            int removed = 0, rounds = 0;
+            while (true) {
+                checkLimits();
+                rounds++;
+                long[] twu = new long[m];
+                for (r = 0; r < rows; r++) {
+                    long from = rawOff.getAtIndex(JAVA_LONG, r), to = rawOff.getAtIndex(JAVA_LONG, r + 1);
+                    long tu = 0;
+                    for (long p = from; p < to; p++) if (alive[rawRank.getAtIndex(JAVA_INT, p)]) tu += rawUtil.getAtIndex(JAVA_INT, p);
+                    for (long p = from; p < to; p++) {
+                        int k = rawRank.getAtIndex(JAVA_INT, p);
+                        if (alive[k]) twu[k] += tu;
+                    }
+                }
+                int dropped = 0;
+                for (int k = 0; k < m; k++) {
+                    if (alive[k] && twu[k] < minUtil) {
+                        alive[k] = false;
+                        dropped++;
+                        log("[DROP L" + level + "] " + items.get(k) + " TWU'=" + twu[k]);
+                    }
+                }
+                removed += dropped;
+                if (dropped == 0) break;
+            }
+            int[] newRank = new int[m];
+            List<String> kept = new ArrayList<>();
+            for (int k = 0; k < m; k++) {
+                newRank[k] = alive[k] ? kept.size() : -1;
+                if (alive[k]) kept.add(items.get(k));
+            }
+            // target[r] = hàng ra của hàng thô r (-1 nếu rỗng); hàng trùng tìm qua bảng băm mở trên chỉ số hàng
+            int[] target = new int[rows], firstRaw = new int[rows], outLen = new int[rows];
+            int[] table = new int[Math.max(16, Integer.highestOneBit(Math.max(rows, 1)) << 2)];
+            Arrays.fill(table, -1);
+            int mask = table.length - 1, outRows = 0;
+            long outTotal = 0;
+            for (r = 0; r < rows; r++) {
+                if ((r & 1023) == 0) checkLimits();
+                long from = rawOff.getAtIndex(JAVA_LONG, r), to = rawOff.getAtIndex(JAVA_LONG, r + 1);
+                int len = 0, h = 1;
+                for (long p = from; p < to; p++) {
+                    int k = rawRank.getAtIndex(JAVA_INT, p);
+                    if (!alive[k]) continue;
+                    len++;
+                    h = 31 * h + newRank[k];
+                }
+                target[r] = -1;
+                if (len == 0) continue;
+                int slot = (h ^ (h >>> 16)) & mask;
+                // Trên mẫu giữ nguyên từng giao dịch để phương sai ước lượng tính đúng theo giao dịch
+                if (!sampling) {
+                    for (; table[slot] >= 0; slot = (slot + 1) & mask) {
+                        int o = table[slot];
+                        if (outLen[o] == len && sameRow(rawOff, rawRank, alive, r, firstRaw[o])) {
+                            target[r] = o;
+                            break;
+                        }
+                    }
+                }
+                if (target[r] >= 0) continue;
+                target[r] = outRows;
+                firstRaw[outRows] = r;
+                outLen[outRows] = len;
+                outTotal += len;
+                if (!sampling) table[slot] = outRows;
+                outRows++;
+            }
+            table = null;
+            projOffsets = arena.allocate(JAVA_LONG.byteSize() * (outRows + 1), JAVA_LONG.byteAlignment());
+            projRanks = arena.allocate(JAVA_INT.byteSize() * Math.max(outTotal, 1), JAVA_INT.byteAlignment());
+            projUtils = arena.allocate(JAVA_INT.byteSize() * Math.max(outTotal, 1), JAVA_INT.byteAlignment());
+            pos = 0;
+            for (int o = 0; o < outRows; o++) {
+                projOffsets.setAtIndex(JAVA_LONG, o, pos);
+                pos += outLen[o];
+            }
+            projOffsets.setAtIndex(JAVA_LONG, outRows, pos);
+            for (r = 0; r < rows; r++) {
+                int o = target[r];
+                if (o < 0) continue;
+                boolean first = firstRaw[o] == r;
+                long w = projOffsets.getAtIndex(JAVA_LONG, o);
+                long from = rawOff.getAtIndex(JAVA_LONG, r), to = rawOff.getAtIndex(JAVA_LONG, r + 1);
+                for (long p = from; p < to; p++) {
+                    int k = rawRank.getAtIndex(JAVA_INT, p);
+                    if (!alive[k]) continue;
+                    int u = rawUtil.getAtIndex(JAVA_INT, p);
+                    if (first) {
+                        projRanks.setAtIndex(JAVA_INT, w, newRank[k]);
+                        projUtils.setAtIndex(JAVA_INT, w, u);
+                    } else {
+                        projUtils.setAtIndex(JAVA_INT, w, projUtils.getAtIndex(JAVA_INT, w) + u);
+                    }
+                    w++;
+                }
+            }
+            log(" Rút gọn L" + level + ": " + rounds + " vòng, bỏ " + removed + " mục, giao dịch "
+                    + database.size() + " -> " + outRows);
+            return kept;
+        }
+    }
+    // Hai hàng thô có cùng tập mục còn sống (đã biết cùng số mục)
+    private static boolean sameRow(MemorySegment off, MemorySegment ranks, boolean[] alive, int r1, int r2) {
+        long p = off.getAtIndex(JAVA_LONG, r1), pEnd = off.getAtIndex(JAVA_LONG, r1 + 1);
+        long q = off.getAtIndex(JAVA_LONG, r2), qEnd = off.getAtIndex(JAVA_LONG, r2 + 1);
+        while (true) {
+            while (p < pEnd && !alive[ranks.getAtIndex(JAVA_INT, p)]) p++;
+            while (q < qEnd && !alive[ranks.getAtIndex(JAVA_INT, q)]) q++;
+            if (p == pEnd || q == qEnd) return p == pEnd && q == qEnd;
+            if (ranks.getAtIndex(JAVA_INT, p++) != ranks.getAtIndex(JAVA_INT, q++)) return false;
+        }
+    }
+    private int projRowCount() {
+        return (int) (projOffsets.byteSize() / JAVA_LONG.byteSize()) - 1;
+    }
+    // Utility list ngoài heap dựng từ CSR của level: lượt 1 đếm kích thước và cập nhật EUCS, lượt 2 ghi
+    private List<UtilityList> buildOffHeapUtilityLists(List<String> items, Arena arena) {
+        int m = items.size(), n = projRowCount();
+        int[] counts = new int[m];
+        int[] tu = new int[n];
+        for (int tid = 0; tid < n; tid++) {
+            if ((tid & 1023) == 0) checkLimits();
+            long from = projOffsets.getAtIndex(JAVA_LONG, tid), to = projOffsets.getAtIndex(JAVA_LONG, tid + 1);
+            for (long a = from; a < to; a++) tu[tid] += projUtils.getAtIndex(JAVA_INT, a);
+            for (long a = from; a < to; a++) {
+                int ra = projRanks.getAtIndex(JAVA_INT, a);
+                counts[ra]++;
+                Map<String, Integer> row = EUCS.computeIfAbsent(items.get(ra), k -> new HashMap<>());
+                for (long b = a + 1; b < to; b++) row.merge(items.get(projRanks.getAtIndex(JAVA_INT, b)), tu[tid], Integer::sum);
+            }
+        }
+        List<UtilityList> list = new ArrayList<>(m);
+        long bytes = projOffsets.byteSize() + projRanks.byteSize() + projUtils.byteSize();
+        for (int r = 0; r < m; r++) {
+            OffHeapUtilityList ul = new OffHeapUtilityList(items.get(r), r, arena, counts[r]);
+            bytes += ul.seg.byteSize();
+            list.add(ul);
+        }
+        for (int tid = 0; tid < n; tid++) {
+            if ((tid & 1023) == 0) checkLimits();
+            long from = projOffsets.getAtIndex(JAVA_LONG, tid), to = projOffsets.getAtIndex(JAVA_LONG, tid + 1);
+            int rest = tu[tid];
+            for (long a = from; a < to; a++) {
+                int u = projUtils.getAtIndex(JAVA_INT, a);
+                rest -= u;
+                ((OffHeapUtilityList) list.get(projRanks.getAtIndex(JAVA_INT, a))).append(tid, u, rest);
+            }
+        }
+        log(" Off-heap: " + (bytes / 1024) + " KB");
+        return list;
+    }
+    // Các mục (theo thứ tự TWU) có mặt trong giao dịch cùng utility; trả về số mục
+    private int projectRow(List<String> items, Transaction t, int[] rowRank, int[] rowUtil) {
+        int len = 0;
+        for (int r = 0; r < items.size(); r++) {
+            int u = utilityOf(items.get(r), t);
+            if (u > 0) {
+                rowRank[len] = r;
+                rowUtil[len++] = u;
+            }
+        }
+        return len;
+    }
+    // Utility của mục có thứ hạng rank trong giao dịch chiếu tid (tìm nhị phân trên hàng)
+    private int projectedUtility(int tid, int rank) {
+        long lo = projOffsets.getAtIndex(JAVA_LONG, tid), hi = projOffsets.getAtIndex(JAVA_LONG, tid + 1) - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int r = projRanks.getAtIndex(JAVA_INT, mid);
+            if (r < rank) lo = mid + 1;
+            else if (r > rank) hi = mid - 1;
+            else return projUtils.getAtIndex(JAVA_INT, mid);
+        }
+        return 0;
+    }
+    // Đo mật độ của level và chuyển các utility list đơn sang bitset nếu dữ liệu dày
+    private List<UtilityList> selectEngine(List<UtilityList> ULs, int level, int n) {
+        long occurrences = 0;
+        for (UtilityList ul : ULs) occurrences += ul.size();
+        double density = ULs.isEmpty() || n == 0 ? 0 : (double) occurrences / ((double) n * ULs.size());
+        if (storage == Storage.OFF_HEAP) {
+            // Giữ utility list ngoài heap, không dựng lại bitset và cột dày trên heap
+            log(String.format(" Engine L%d: tidlist ngoài heap (mật độ=%.3f%s)", level, density,
+                    engine == Engine.BITSET ? ", bỏ qua BITSET" : ""));
+            return ULs;
+        }
+        boolean useBitset = engine == Engine.BITSET || (engine == Engine.AUTO && density >= DENSE_THRESHOLD);
+        log(String.format(" Engine L%d: %s (mật độ=%.3f)", level, useBitset ? "bitset" : "tidlist", density));
+        if (!useBitset) return ULs;
+        colUtil = new int[ULs.size()][];
+        colRutil = new int[ULs.size()][];
+        colBits = new long[ULs.size()][];
+        List<UtilityList> out = new ArrayList<>(ULs.size());
+        for (int c = 0; c < ULs.size(); c++) {
+            UtilityList ul = ULs.get(c);
+            int[] u = new int[n], r = new int[n];
+            long[] bits = new long[(n + 63) >>> 6];
+            int[] iutil = new int[ul.size()];
+            for (int k = 0; k < iutil.length; k++) {
+                int tid = ul.tid(k);
+                bits[tid >>> 6] |= 1L << tid;
+                iutil[k] = ul.iutil(k);
+                u[tid] = iutil[k];
+                r[tid] = ul.rutil(k);
+            }
+            colUtil[c] = u;
+            colRutil[c] = r;
+            colBits[c] = bits;
+            out.add(new BitsetUtilityList(ul.item, c, bits, iutil, ul.sumIutil, ul.sumRutil));
+        }
+        return out;
+    }
+    private UtilityList construct(UtilityList X, UtilityList Y, Arena arena) {
+        if (X instanceof BitsetUtilityList) return constructBitset((BitsetUtilityList) X, (BitsetUtilityList) Y);
+        if (X instanceof OffHeapUtilityList) return constructOffHeap((OffHeapUtilityList) X, (OffHeapUtilityList) Y, arena);
+        int cap = Math.min(X.size, Y.size);
+        if (joinX.length < cap) {
+            joinX = new int[cap];
+            joinY = new int[cap];
+        }
+        int k = kernels.intersect(X.tids, X.size, Y.tids, Y.size, joinX, joinY);
+        UtilityList XY = new UtilityList(Y.item, k);
+        // Utility của tổ hợp mới tại mỗi giao dịch chung = iutil(X) + utility riêng của mục Y
+        kernels.gather(X.tids, joinX, k, XY.tids);
+        kernels.gatherAdd(X.iutils, joinX, Y.eutils, joinY, k, XY.iutils);
+        kernels.gather(Y.rutils, joinY, k, XY.rutils);
+        kernels.gather(Y.eutils, joinY, k, XY.eutils);
+        XY.size = k;
+        XY.sumIutil = kernels.sum(XY.iutils, k);
+        XY.sumRutil = kernels.sum(XY.rutils, k);
+        return XY;
+    }
+    private UtilityList constructOffHeap(OffHeapUtilityList X, OffHeapUtilityList Y, Arena arena) {
+        OffHeapUtilityList XY = new OffHeapUtilityList(Y.item, Y.rank, arena, Math.min(X.size, Y.size));
         int i = 0, j = 0;
-        while (i < X.nodes.size() && j < Y.nodes.size()) {
-            ULNode nx = X.nodes.get(i), ny = Y.nodes.get(j);
-            if (nx.tid == ny.tid) {
-                // Tính utility của tổ hợp mới tại giao dịch này
-                XY.add(new ULNode(nx.tid, nx.iutil + utilityOf(Y.item, database.get(nx.tid)), ny.rutil));
+        while (i < X.size && j < Y.size) {
+            int tx = X.tid(i), ty = Y.tid(j);
+            if (tx == ty) {
+                XY.append(tx, X.iutil(i) + projectedUtility(tx, Y.rank), Y.rutil(j));
                 i++; j++;
-            } else if (nx.tid < ny.tid) i++;
+            } else if (tx < ty) i++;
             else j++;
         }
         return XY;
     }
+    // Nối hai bitset bằng AND + popcount; utility chỉ được lấy cho các tid còn lại
+    private UtilityList constructBitset(BitsetUtilityList X, BitsetUtilityList Y) {
+        long[] a = X.bits, b = Y.bits;
+        int words = Math.min(a.length, b.length);
+        long[] and = new long[words];
+        int count = 0, last = -1;
+        for (int w = 0; w < words; w++) {
+            long m = a[w] & b[w];
+            if (m != 0) {
+                and[w] = m;
+                count += Long.bitCount(m);
+                last = w;
+            }
+        }
+        if (count == 0) return new BitsetUtilityList(Y.item, Y.col, new long[0], new int[0], 0, 0);
+        int[] yUtil = colUtil[Y.col], yRutil = colRutil[Y.col];
+        int[] iutil = new int[count];
+        int sumI = 0, sumR = 0, k = 0, xRank = 0;
+        for (int w = 0; w <= last; w++) {
+            long xw = a[w];
+            long m = and[w];
+            while (m != 0) {
+                long low = m & -m;
+                int tid = (w << 6) | Long.numberOfTrailingZeros(m);
+                // Vị trí của tid trong mảng iutil của X = số bit đứng trước nó trong X
+                int pos = xRank + Long.bitCount(xw & (low - 1));
+                iutil[k] = X.iutil[pos] + yUtil[tid];
+                sumI += iutil[k++];
+                sumR += yRutil[tid];
+                m ^= low;
+            }
+            xRank += Long.bitCount(xw);
+        }
+        return new BitsetUtilityList(Y.item, Y.col, Arrays.copyOf(and, last + 1), iutil, sumI, sumR);
+    }
     private Map<String, Integer> computeTWU() {
-        Map<String, Integer> map = new HashMap<>();
+        int n = taxonomyIndex.size();
+        int[] twu = new int[n];
+        int[] stamp = new int[n];
+        boolean[] seen = new boolean[n];
+        int tid = 0;
         for (Transaction t : database) {
-            Set<String> added = new HashSet<>();
+            if ((++tid & 1023) == 0) checkLimits();
             for (String i : t.items.keySet()) {
-                String current = i;
-                while (current != null) {
-                    if (added.add(current)) map.put(current, map.getOrDefault(current, 0) + t.tu);
-                    current = childToParent.get(current);
+                // Đi lên theo parent; dừng khi gặp tổ tiên đã cộng cho giao dịch này
+                for (int a = taxonomyIndex.id(i); a >= 0 && stamp[a] != tid; a = taxonomyIndex.parent(a)) {
+                    stamp[a] = tid;
+                    seen[a] = true;
+                    twu[a] += t.tu;
                 }
             }
         }
+        Map<String, Integer> map = new HashMap<>();
+        for (int id = 0; id < n; id++) if (seen[id]) map.put(taxonomyIndex.name(id), twu[id]);
         return map;
     }
     private int utilityOf(String item, Transaction t) {
-        Integer level = itemLevels.get(item);
-        if (level == null || level == 0) {
-            return t.items.containsKey(item) ? t.items.get(item) * extUtil.getOrDefault(item, 0) : 0;
-        } else {
-            int s = 0;
-            for (String leaf : leafDescendants.getOrDefault(item, Collections.emptyList())) {
-                if (t.items.containsKey(leaf)) s += t.items.get(leaf) * extUtil.getOrDefault(leaf, 0);
-            }
-            return s;
+        int id = taxonomyIndex.id(item);
+        if (id < 0) return 0;
+        // Hậu duệ lá của mục là khoảng liên tục, giao dịch lưu lá theo id tăng dần
+        int end = taxonomyIndex.rangeEnd(id);
+        int s = 0;
+        for (int k = t.lowerBound(taxonomyIndex.rangeStart(id)); k < t.leaves.length && t.leaves[k] < end; k++) {
+            s += t.utils[k];
         }
+        return s;
     }
     private void parseTransactions() {
+        int rows = 0;
         for (String line : transactionsText.split("\n")) {
+            if ((++rows & 1023) == 0) checkLimits();
             if (line.trim().isEmpty()) continue;
             String[] p = line.split(":");
             Transaction t = new Transaction();
@@ -283,46 +1284,223 @@ public class MLHUIMiner {
         }
     }
     private void parseExternalUtility() {
+        int rows = 0;
         for (String l : externalUtilityText.split("\n")) {
+            if ((++rows & 1023) == 0) checkLimits();
             if (l.trim().isEmpty()) continue;
             String[] p = l.split(":");
             extUtil.put(p[0].trim(), Integer.parseInt(p[1].trim()));
         }
     }
     private void parseTaxonomy() {
+        int rows = 0;
         for (String l : taxonomyText.split("\n")) {
+            if ((++rows & 1023) == 0) checkLimits();
             if (l.trim().isEmpty()) continue;
             String[] p = l.split(":");
             String parent = p[0].trim();
             for (String c : p[1].split(",")) {
                 String child = c.trim();
                 taxonomy.computeIfAbsent(parent, k -> new ArrayList<>()).add(child);
-                childToParent.put(child, parent);
             }
         }
     }
+    // Điểm kiểm tra hợp tác: hủy, hết giờ, vượt ngân sách heap
+    private void checkLimits() {
+        if (cancelToken.isCancelled()) stop(Status.CANCELLED);
+        if (System.nanoTime() > deadlineNanos) stop(Status.TIME_LIMIT);
+        if (options.heapBudgetBytes > 0 && --heapCheckCountdown <= 0) {
+            heapCheckCountdown = 256;
+            if (usedHeap() > options.heapBudgetBytes && confirmHeapOverBudget()) stop(Status.HEAP_LIMIT);
+        }
+    }
+    // Sau khi đã dừng sớm, việc kiểm chứng chỉ còn dừng khi bị hủy (hoặc đủ maxResults)
+    private void checkVerifyLimits() {
+        if (stopStatus == null) checkLimits();
+        else if (cancelToken.isCancelled()) stop(Status.CANCELLED);
+    }
+    // Heap đang dùng gồm cả rác chưa thu gom: chỉ dừng nếu sau GC vẫn vượt (GC tối đa 1 lần/giây)
+    private boolean confirmHeapOverBudget() {
+        long now = System.nanoTime();
+        if (now - lastHeapGcNanos < 1_000_000_000L) return false;
+        lastHeapGcNanos = now;
+        System.gc();
+        return usedHeap() > options.heapBudgetBytes;
+    }
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+    private void stop(Status status) {
+        stopStatus = status;
+        throw new StopMining();
+    }
     private void log(String s) { logSink.log(s); }
     class Transaction {
         Map<String, Integer> items = new HashMap<>();
         int tu = 0;
+        int[] leaves = new int[0];
+        int[] utils = new int[0];
         void add(String name, int qty) {
             items.put(name, qty);
             tu += qty * extUtil.getOrDefault(name, 0);
         }
+        // Lưu các lá theo id tăng dần cùng utility (qty * external utility)
+        void index(TaxonomyIndex idx) {
+            long[] packed = new long[items.size()];
+            int n = 0;
+            for (Map.Entry<String, Integer> e : items.entrySet()) {
+                int id = idx.id(e.getKey());
+                if (id < 0 || !idx.isLeaf(id)) continue;
+                int u = e.getValue() * extUtil.getOrDefault(e.getKey(), 0);
+                packed[n++] = ((long) id << 32) | (u & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed, 0, n);
+            leaves = new int[n];
+            utils = new int[n];
+            for (int k = 0; k < n; k++) {
+                leaves[k] = (int) (packed[k] >>> 32);
+                utils[k] = (int) packed[k];
+            }
+        }
+        int lowerBound(int leaf) {
+            int lo = 0, hi = leaves.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (leaves[mid] < leaf) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+    // CSDL chiếu của một level: hàng tid gồm thứ hạng các mục (tăng dần) và utility tương ứng
+    static final class LevelDatabase {
+        final List<String> items;
+        final int[][] ranks;
+        final int[][] utils;
+        final int[] tu;
+        LevelDatabase(List<String> items, int[][] ranks, int[][] utils) {
+            this.items = items;
+            this.ranks = ranks;
+            this.utils = utils;
+            this.tu = new int[utils.length];
+            for (int t = 0; t < utils.length; t++) for (int u : utils[t]) tu[t] += u;
+        }
+        int size() { return tu.length; }
     }
-    class ULNode {
-        int tid, iutil, rutil;
-        ULNode(int t, int i, int r) { tid = t; iutil = i; rutil = r; }
+    // Khoá so sánh tập mục của một hàng khi gộp giao dịch trùng
+    static final class RowKey {
+        final int[] ranks;
+        private final int hash;
+        RowKey(int[] ranks) {
+            this.ranks = ranks;
+            this.hash = Arrays.hashCode(ranks);
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RowKey && Arrays.equals(ranks, ((RowKey) o).ranks);
+        }
+        @Override
+        public int hashCode() { return hash; }
     }
+    // Utility list dạng cột, tid tăng dần; eutil là utility riêng của mục cuối (item)
     class UtilityList {
         String item;
-        List<ULNode> nodes = new ArrayList<>();
+        int[] tids, iutils, rutils, eutils;
+        int size = 0;
         int sumIutil = 0, sumRutil = 0;
-        UtilityList(String item) { this.item = item; }
-        void add(ULNode n) {
-            nodes.add(n);
-            sumIutil += n.iutil;
-            sumRutil += n.rutil;
+        UtilityList(String item) { this(item, 4); }
+        UtilityList(String item, int capacity) {
+            this.item = item;
+            tids = new int[capacity];
+            iutils = new int[capacity];
+            rutils = new int[capacity];
+            eutils = new int[capacity];
+        }
+        void add(int tid, int iutil, int rutil, int eutil) {
+            if (size == tids.length) {
+                int cap = Math.max(4, size * 2);
+                tids = Arrays.copyOf(tids, cap);
+                iutils = Arrays.copyOf(iutils, cap);
+                rutils = Arrays.copyOf(rutils, cap);
+                eutils = Arrays.copyOf(eutils, cap);
+            }
+            tids[size] = tid;
+            iutils[size] = iutil;
+            rutils[size] = rutil;
+            eutils[size++] = eutil;
+            sumIutil += iutil;
+            sumRutil += rutil;
+        }
+        boolean isEmpty() { return size == 0; }
+        int size() { return size; }
+        int tid(int k) { return tids[k]; }
+        int iutil(int k) { return iutils[k]; }
+        int rutil(int k) { return rutils[k]; }
+    }
+    // Utility list ngoài heap: 3 cột tid | iutil | rutil liên tiếp trong một MemorySegment
+    class OffHeapUtilityList extends UtilityList {
+        final int rank;
+        final int cap;
+        final MemorySegment seg;
+        OffHeapUtilityList(String item, int rank, Arena arena, int cap) {
+            super(item, 0);
+            this.rank = rank;
+            this.cap = cap;
+            this.seg = arena.allocate(JAVA_INT.byteSize() * 3 * Math.max(cap, 1), JAVA_INT.byteAlignment());
+        }
+        void append(int tid, int iu, int ru) {
+            seg.setAtIndex(JAVA_INT, size, tid);
+            seg.setAtIndex(JAVA_INT, (long) cap + size, iu);
+            seg.setAtIndex(JAVA_INT, 2L * cap + size, ru);
+            size++;
+            sumIutil += iu;
+            sumRutil += ru;
+        }
+        @Override
+        int tid(int k) { return seg.getAtIndex(JAVA_INT, k); }
+        @Override
+        int iutil(int k) { return seg.getAtIndex(JAVA_INT, (long) cap + k); }
+        @Override
+        int rutil(int k) { return seg.getAtIndex(JAVA_INT, 2L * cap + k); }
+    }
+    // Utility list dọc: tập tid là bitset, iutil xếp theo thứ tự các bit được bật
+    class BitsetUtilityList extends UtilityList {
+        final int col;
+        final long[] bits;
+        final int[] iutil;
+        // rankOfWord[w] = số bit bật trong bits[0..w), dựng khi cần cho tid(k)
+        private int[] rankOfWord;
+        BitsetUtilityList(String item, int col, long[] bits, int[] iutil, int sumIutil, int sumRutil) {
+            super(item, 0);
+            this.col = col;
+            this.bits = bits;
+            this.iutil = iutil;
+            this.sumIutil = sumIutil;
+            this.sumRutil = sumRutil;
+        }
+        @Override
+        boolean isEmpty() { return iutil.length == 0; }
+        @Override
+        int size() { return iutil.length; }
+        @Override
+        int tid(int k) {
+            if (rankOfWord == null) {
+                rankOfWord = new int[bits.length + 1];
+                for (int w = 0; w < bits.length; w++) rankOfWord[w + 1] = rankOfWord[w] + Long.bitCount(bits[w]);
+            }
+            int lo = 0, hi = bits.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (rankOfWord[mid] <= k) lo = mid; else hi = mid - 1;
+            }
+            long m = bits[lo];
+            for (int skip = k - rankOfWord[lo]; skip > 0; skip--) m &= m - 1;
+            return (lo << 6) | Long.numberOfTrailingZeros(m);
         }
+        @Override
+        int iutil(int k) { return iutil[k]; }
+        @Override
+        int rutil(int k) { return colRutil[col][tid(k)]; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,507 @@
+// Dịch vụ HTTP cục bộ: nhận job khai phá, theo dõi trạng thái và truyền kết quả
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Request chạy trên virtual thread, khai phá trên pool cố định số CPU với hàng đợi giới hạn (đầy -> 503)
+// Dataset phân tích một lần, dùng chung, giới hạn theo byte (LRU); kết quả job ghi ra file tạm; chỉ đọc file trong dataRoot (ngoài -> 403)
+// POST   /datasets?transactions=PATH&external=PATH&taxonomy=PATH  -> {"id": ...}
+// GET    /datasets                     -> dữ liệu đã nạp
+// POST   /jobs?dataset=ID&minUtil=N[&mode=ALL|CLOSED|MAXIMAL][&timeLimitMs=..][&maxResults=..]
+// GET    /jobs/ID                      -> trạng thái, tiến độ, thời gian, bộ nhớ
+// GET    /jobs/ID/results              -> "level TAB hui" từng dòng, truyền dần khi đang chạy
+// DELETE /jobs/ID                      -> hủy job
+public class MiningService {
+    private static final int MAX_FINISHED_JOBS = 1000;
+
+    enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    static final class Dataset {
+        final String id;
+        final String name;
+        final MLHUIMiner.Dataset data;
+
+        Dataset(String id, String name, MLHUIMiner.Dataset data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    static final class Job {
+        final String id;
+        final Dataset dataset;
+        final int minUtil;
+        final MLHUIMiner.OutputMode mode;
+        final MLHUIMiner.RunOptions options;
+        // Token riêng của job: DELETE có hiệu lực cả khi job đang phát lại từ cache hay chưa vào run()
+        final MLHUIMiner.CancelToken cancelToken = new MLHUIMiner.CancelToken();
+        // Các dòng kết quả "level\thui" theo thứ tự tìm được, ghi dần ra file tạm (chỉ thêm vào cuối);
+        // written và resultCount đọc dưới khóa của job
+        final Path resultFile;
+        private final FileChannel out;
+        private final ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+        long written = 0;
+        long resultCount = 0;
+        volatile State state = State.QUEUED;
+        volatile double progress = 0;
+        volatile boolean cached = false;
+        volatile MLHUIMiner.Result result;
+        volatile String error;
+        Future<?> future;
+
+        Job(String id, Dataset dataset, int minUtil, MLHUIMiner.OutputMode mode, MLHUIMiner.RunOptions options)
+                throws IOException {
+            this.id = id;
+            this.dataset = dataset;
+            this.minUtil = minUtil;
+            this.mode = mode;
+            this.options = options;
+            options.cancelToken = cancelToken;
+            this.resultFile = Files.createTempFile("mlhui-job-", ".txt");
+            this.out = FileChannel.open(resultFile, StandardOpenOption.WRITE);
+        }
+
+        synchronized void addLine(String line) {
+            byte[] b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (b.length > pending.remaining()) flush();
+            if (b.length > pending.capacity()) write(ByteBuffer.wrap(b));
+            else pending.put(b);
+            resultCount++;
+        }
+
+        // Đẩy phần đệm xuống file; trả về số byte đã có trong file
+        synchronized long flush() {
+            pending.flip();
+            write(pending);
+            pending.clear();
+            notifyAll();
+            return written;
+        }
+
+        private void write(ByteBuffer b) {
+            try {
+                while (b.hasRemaining()) written += out.write(b);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void finish(State s) {
+            try {
+                flush();
+                out.close();
+            } catch (IOException | UncheckedIOException e) {
+                error = "không ghi được file kết quả";
+                s = State.FAILED;
+            }
+            state = s;
+            notifyAll();
+        }
+
+        // Gọi khi job bị bỏ khỏi danh sách: đóng và xoá file kết quả
+        void discard() {
+            try {
+                synchronized (this) {
+                    out.close();
+                }
+                Files.deleteIfExists(resultFile);
+            } catch (IOException ignored) {
+            }
+        }
+
+        boolean finished() { return state == State.DONE || state == State.FAILED; }
+    }
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor miningPool;
+    private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ResultCache resultCache;
+    private final Path dataRoot;
+    // Dữ liệu đã phân tích theo thứ tự truy cập (LRU); datasetBytes là tổng estimatedBytes, cùng khóa datasets
+    private final LinkedHashMap<String, Dataset> datasets = new LinkedHashMap<>(16, 0.75f, true);
+    private final long datasetBudgetBytes;
+    private long datasetBytes = 0;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Deque<String> finishedJobs = new ConcurrentLinkedDeque<>();
+    private final AtomicLong nextJobId = new AtomicLong(1);
+
+    public MiningService(InetSocketAddress address, int queueCapacity, ResultCache resultCache, Path dataRoot,
+                         long datasetBudgetBytes) throws IOException {
+        this.dataRoot = dataRoot.toRealPath();
+        this.datasetBudgetBytes = datasetBudgetBytes;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        this.miningPool = new ThreadPoolExecutor(cpus, cpus, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+        this.resultCache = resultCache;
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/datasets", this::handleDatasets);
+        server.createContext("/jobs", this::handleJobs);
+    }
+
+    public void start() { server.start(); }
+
+    public void stop() {
+        server.stop(0);
+        for (Job job : jobs.values()) job.cancelToken.cancel();
+        miningPool.shutdownNow();
+        requestExecutor.shutdown();
+        for (Job job : jobs.values()) job.discard();
+    }
+
+    public int port() { return server.getAddress().getPort(); }
+
+    private void handleDatasets(HttpExchange ex) throws IOException {
+        try (ex) {
+            Map<String, String> q = query(ex);
+            switch (ex.getRequestMethod()) {
+                case "POST" -> {
+                    String t = q.get("transactions"), e = q.get("external"), x = q.get("taxonomy");
+                    if (t == null || e == null || x == null) {
+                        send(ex, 400, "{\"error\": \"cần transactions, external, taxonomy\"}");
+                        return;
+                    }
+                    String[] names = { t, e, x };
+                    Path[] files = new Path[names.length];
+                    for (int k = 0; k < names.length; k++) {
+                        files[k] = resolveData(names[k]);
+                        if (files[k] == null) {
+                            send(ex, 403, "{\"error\": " + json("ngoài thư mục dữ liệu: " + names[k]) + "}");
+                            return;
+                        }
+                        if (!Files.isRegularFile(files[k])) {
+                            send(ex, 404, "{\"error\": " + json("không tìm thấy file: " + names[k]) + "}");
+                            return;
+                        }
+                    }
+                    String tText, eText, xText;
+                    try {
+                        tText = Files.readString(files[0], StandardCharsets.UTF_8);
+                        eText = Files.readString(files[1], StandardCharsets.UTF_8);
+                        xText = Files.readString(files[2], StandardCharsets.UTF_8);
+                    } catch (IOException err) {
+                        // Không trả chi tiết lỗi đọc (có thể lộ nội dung file) cho client
+                        send(ex, 400, "{\"error\": \"không đọc được file dữ liệu (cần văn bản UTF-8)\"}");
+                        return;
+                    }
+                    String id = ResultCache.key(tText, eText, xText).substring(0, 16);
+                    // Cùng nội dung thì dùng lại bản đã phân tích; văn bản gốc không được giữ lại
+                    Dataset d = dataset(id);
+                    if (d == null) {
+                        MLHUIMiner.Dataset data;
+                        try {
+                            data = MLHUIMiner.parse(tText, eText, xText);
+                        } catch (NumberFormatException | IndexOutOfBoundsException err) {
+                            // Thông báo của các lỗi phân tích chứa nguyên văn dòng dữ liệu, không trả về client
+                            send(ex, 400, "{\"error\": \"dữ liệu không đúng định dạng\"}");
+                            return;
+                        } catch (IllegalArgumentException err) {
+                            send(ex, 400, "{\"error\": " + json(err.getMessage()) + "}");
+                            return;
+                        }
+                        d = addDataset(new Dataset(id, files[0].getFileName().toString(), data));
+                    }
+                    send(ex, 200, "{\"id\": " + json(d.id) + ", \"name\": " + json(d.name) + "}");
+                }
+                case "GET" -> {
+                    StringJoiner list = new StringJoiner(", ", "[", "]");
+                    synchronized (datasets) {
+                        for (Dataset d : datasets.values()) {
+                            list.add("{\"id\": " + json(d.id) + ", \"name\": " + json(d.name) + ", \"transactions\": "
+                                    + d.data.size() + ", \"bytes\": " + d.data.estimatedBytes() + "}");
+                        }
+                    }
+                    send(ex, 200, list.toString());
+                }
+                default -> send(ex, 405, "{\"error\": \"method not allowed\"}");
+            }
+        }
+    }
+
+    private Dataset dataset(String id) {
+        synchronized (datasets) {
+            return datasets.get(id);
+        }
+    }
+
+    // Thêm dữ liệu rồi bỏ các dữ liệu ít dùng nhất cho tới khi tổng dung lượng ước lượng không vượt
+    // datasetBudgetBytes (luôn giữ dữ liệu vừa thêm). Job đang chạy vẫn giữ tham chiếu tới dữ liệu của nó
+    private Dataset addDataset(Dataset d) {
+        synchronized (datasets) {
+            Dataset existing = datasets.get(d.id);
+            if (existing != null) return existing;
+            datasets.put(d.id, d);
+            datasetBytes += d.data.estimatedBytes();
+            Iterator<Dataset> it = datasets.values().iterator();
+            while (datasetBytes > datasetBudgetBytes && datasets.size() > 1) {
+                Dataset old = it.next();
+                it.remove();
+                datasetBytes -= old.data.estimatedBytes();
+            }
+            return d;
+        }
+    }
+
+    // PATH tính từ dataRoot; null nếu sau khi chuẩn hoá hoặc theo symlink nó nằm ngoài dataRoot
+    private Path resolveData(String name) throws IOException {
+        Path p;
+        try {
+            p = dataRoot.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!p.startsWith(dataRoot)) return null;
+        if (Files.exists(p) && !p.toRealPath().startsWith(dataRoot)) return null;
+        return p;
+    }
+
+    private void handleJobs(HttpExchange ex) throws IOException {
+        try (ex) {
+            String[] path = ex.getRequestURI().getPath().split("/");
+            // path = ["", "jobs"] hoặc ["", "jobs", id] hoặc ["", "jobs", id, "results"]
+            String method = ex.getRequestMethod();
+            if (path.length == 2 && method.equals("POST")) {
+                submit(ex);
+                return;
+            }
+            Job job = path.length >= 3 ? jobs.get(path[2]) : null;
+            if (job == null) {
+                send(ex, 404, "{\"error\": \"job không tồn tại\"}");
+            } else if (path.length == 3 && method.equals("GET")) {
+                send(ex, 200, status(job));
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                boolean dequeued;
+                synchronized (job) {
+                    dequeued = job.state == State.QUEUED;
+                    if (dequeued) {
+                        job.error = "cancelled before start";
+                        job.finish(State.FAILED);
+                    }
+                }
+                if (dequeued) {
+                    if (job.future != null) miningPool.remove((Runnable) job.future);
+                    retire(job);
+                } else {
+                    job.cancelToken.cancel();
+                }
+                send(ex, 200, status(job));
+            } else if (path.length == 4 && path[3].equals("results") && method.equals("GET")) {
+                streamResults(ex, job);
+            } else {
+                send(ex, 405, "{\"error\": \"method not allowed\"}");
+            }
+        }
+    }
+
+    private void submit(HttpExchange ex) throws IOException {
+        Map<String, String> q = query(ex);
+        Dataset d = dataset(q.getOrDefault("dataset", ""));
+        if (d == null) {
+            send(ex, 404, "{\"error\": \"dataset không tồn tại\"}");
+            return;
+        }
+        MLHUIMiner.RunOptions options = new MLHUIMiner.RunOptions();
+        int minUtil;
+        MLHUIMiner.OutputMode mode;
+        try {
+            minUtil = Integer.parseInt(q.getOrDefault("minUtil", ""));
+            mode = MLHUIMiner.OutputMode.valueOf(q.getOrDefault("mode", "ALL"));
+            options.timeLimitMs = Long.parseLong(q.getOrDefault("timeLimitMs", "0"));
+            options.maxResults = Long.parseLong(q.getOrDefault("maxResults", "0"));
+        } catch (IllegalArgumentException e) {
+            send(ex, 400, "{\"error\": " + json("tham số không hợp lệ: " + e.getMessage()) + "}");
+            return;
+        }
+        Job job;
+        try {
+            job = new Job(Long.toString(nextJobId.getAndIncrement()), d, minUtil, mode, options);
+        } catch (IOException e) {
+            send(ex, 500, "{\"error\": \"không tạo được file kết quả\"}");
+            return;
+        }
+        jobs.put(job.id, job);
+        try {
+            job.future = miningPool.submit(() -> execute(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            job.discard();
+            send(ex, 503, "{\"error\": \"hàng đợi đầy\"}");
+            return;
+        }
+        send(ex, 202, status(job));
+    }
+
+    private void execute(Job job) {
+        synchronized (job) {
+            // Job đã bị hủy khi còn trong hàng đợi
+            if (job.state != State.QUEUED) return;
+            job.state = State.RUNNING;
+        }
+        MLHUIMiner.LogSink quiet = s -> { };
+        try {
+            Dataset d = job.dataset;
+            boolean cacheable = ResultCache.cacheable(job.mode, job.options);
+            MLHUIMiner.Result cached = cacheable ? resultCache.replay(d.id, job.minUtil, quiet) : null;
+            MLHUIMiner.Result r;
+            if (cached != null) {
+                job.cached = true;
+                for (Map.Entry<Integer, List<MLHUIMiner.Hui>> lv : cached.huisByLevel.entrySet()) {
+                    for (MLHUIMiner.Hui hui : lv.getValue()) {
+                        if (job.cancelToken.isCancelled()) break;
+                        job.addLine(lv.getKey() + "\t" + MLHUIMiner.format(hui));
+                    }
+                }
+                r = job.cancelToken.isCancelled() ? new MLHUIMiner.Result(cached.timeMs, cached.memoryKb,
+                        MLHUIMiner.Status.CANCELLED, Collections.emptyMap()) : cached;
+            } else {
+                MLHUIMiner miner = new MLHUIMiner();
+                miner.setOutputMode(job.mode);
+                miner.setHuiListener((level, branch, hui) -> job.addLine(level + "\t" + MLHUIMiner.format(hui)));
+                miner.setProgressListener((levelIndex, levelCount, done, total) ->
+                        job.progress = levelCount == 0 ? 1 : (levelIndex + (double) done / Math.max(1, total)) / levelCount);
+                // Dòng kết quả đã nằm trong file của job; chỉ giữ HUI trong Result khi cần đưa vào cache
+                job.options.keepResults = cacheable;
+                r = miner.run(d.data, job.minUtil, job.options, quiet);
+                if (cacheable) resultCache.put(d.id, job.minUtil, r);
+            }
+            // Job đã xong chỉ giữ phần tóm tắt, không giữ danh sách HUI
+            job.result = new MLHUIMiner.Result(r.timeMs, r.memoryKb, r.status, r.approximate, Collections.emptyMap());
+            job.progress = 1;
+            job.finish(State.DONE);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            job.error = e.toString();
+            job.finish(State.FAILED);
+        } finally {
+            retire(job);
+        }
+    }
+
+    // Giữ tối đa MAX_FINISHED_JOBS job đã xong để tra cứu, bỏ job cũ nhất
+    private void retire(Job job) {
+        finishedJobs.add(job.id);
+        while (finishedJobs.size() > MAX_FINISHED_JOBS) {
+            String old = finishedJobs.poll();
+            Job removed = old == null ? null : jobs.remove(old);
+            if (removed != null) removed.discard();
+        }
+    }
+
+    private void streamResults(HttpExchange ex, Job job) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream os = ex.getResponseBody();
+             FileChannel in = FileChannel.open(job.resultFile, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(os);
+            long next = 0;
+            while (true) {
+                long end;
+                boolean done;
+                synchronized (job) {
+                    // Phần còn trong bộ đệm của job được đẩy xuống file sau tối đa 200 ms
+                    if (next == job.written && !job.finished()) {
+                        try {
+                            job.wait(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    done = job.finished();
+                    end = job.flush();
+                }
+                while (next < end) next += in.transferTo(next, end - next, target);
+                os.flush();
+                if (done) break;
+            }
+        }
+    }
+
+    private String status(Job job) {
+        MLHUIMiner.Result r = job.result;
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"id\": ").append(json(job.id));
+        sb.append(", \"dataset\": ").append(json(job.dataset.id));
+        sb.append(", \"minUtil\": ").append(job.minUtil);
+        sb.append(", \"mode\": ").append(json(job.mode.name()));
+        sb.append(", \"state\": ").append(json(job.state.name()));
+        sb.append(", \"progress\": ").append(String.format(Locale.ROOT, "%.3f", job.progress));
+        synchronized (job) {
+            sb.append(", \"results\": ").append(job.resultCount);
+        }
+        if (job.state == State.QUEUED) sb.append(", \"queued\": ").append(miningPool.getQueue().size());
+        if (r != null) {
+            sb.append(", \"status\": ").append(json(r.status.name()));
+            sb.append(", \"cached\": ").append(job.cached);
+            sb.append(", \"timeMs\": ").append(r.timeMs);
+            sb.append(", \"memoryKb\": ").append(r.memoryKb);
+        }
+        if (job.error != null) sb.append(", \"error\": ").append(json(job.error));
+        return sb.append("}").toString();
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> q = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return q;
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            q.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+
+    private static void send(HttpExchange ex, int code, String body) throws IOException {
+        byte[] b = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(code, b.length);
+        ex.getResponseBody().write(b);
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // MiningService [port] [host] [queueCapacity] [dataRoot] [datasetMb], mặc định 8080, 127.0.0.1, 64, thư mục hiện tại, 1/4 heap tối đa
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String host = args.length > 1 ? args[1] : "127.0.0.1";
+        int queue = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        Path dataRoot = Paths.get(args.length > 3 ? args[3] : ".");
+        long datasetBudget = args.length > 4 ? Long.parseLong(args[4]) << 20 : Runtime.getRuntime().maxMemory() / 4;
+        MiningService service = new MiningService(new InetSocketAddress(host, port), queue,
+                new ResultCache(32, 256L << 20), dataRoot, datasetBudget);
+        // Hủy các job và xoá file kết quả tạm khi tiến trình bị dừng
+        Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+        service.start();
+        System.out.println("ML-HUI service: http://" + host + ":" + service.port() + "/ (dữ liệu: " + service.dataRoot + ")");
+    }
+}
@@ -0,0 +1,337 @@
+// Khai phá phân vùng trên nhiều tiến trình JVM cùng máy
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Nhánh gốc thứ i của mỗi level do worker i % N (một JVM riêng) khai phá; gộp theo thứ tự nhánh nên kết quả như chạy một tiến trình
+// Worker ở máy khác (tiền tố "ssh host") cần cùng đường dẫn dữ liệu và classpath
+public class PartitionedMiner {
+    private static final String WORKER_FLAG = "--worker";
+
+    private final int workers;
+    private MLHUIMiner.Engine engine = MLHUIMiner.Engine.AUTO;
+    private MLHUIMiner.Storage storage = MLHUIMiner.Storage.HEAP;
+    private MLHUIMiner.OutputMode outputMode = MLHUIMiner.OutputMode.ALL;
+    private List<String> launcherPrefix = Collections.emptyList();
+    private boolean launcherShell = true;
+    private List<String> workerJvmArgs = Collections.emptyList();
+    private final List<Process> processes = new ArrayList<>();
+    private volatile MLHUIMiner.CancelToken cancelToken = new MLHUIMiner.CancelToken();
+
+    public PartitionedMiner(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("Số worker phải >= 1: " + workers);
+        this.workers = workers;
+    }
+
+    public void setEngine(MLHUIMiner.Engine engine) {
+        this.engine = engine == null ? MLHUIMiner.Engine.AUTO : engine;
+    }
+
+    public void setStorage(MLHUIMiner.Storage storage) {
+        this.storage = storage == null ? MLHUIMiner.Storage.HEAP : storage;
+    }
+
+    public void setOutputMode(MLHUIMiner.OutputMode outputMode) {
+        this.outputMode = outputMode == null ? MLHUIMiner.OutputMode.ALL : outputMode;
+    }
+
+    // Lệnh đặt trước "java ..." của worker (rỗng = chạy tại chỗ); ssh ghép tham số thành chuỗi shell nên mỗi tham số được đặt trong nháy đơn
+    public void setLauncherPrefix(List<String> launcherPrefix) {
+        setLauncherPrefix(launcherPrefix, true);
+    }
+
+    // viaShell = false cho lệnh bọc cục bộ (nice, taskset...) nhận tham số nguyên vẹn
+    public void setLauncherPrefix(List<String> launcherPrefix, boolean viaShell) {
+        this.launcherPrefix = launcherPrefix == null ? Collections.emptyList() : List.copyOf(launcherPrefix);
+        this.launcherShell = viaShell;
+    }
+
+    // Tham số JVM thêm cho worker (ví dụ -Xmx2g), đặt sau --enable-preview, --add-modules, -Xss kế thừa từ JVM hiện tại
+    public void setWorkerJvmArgs(List<String> workerJvmArgs) {
+        this.workerJvmArgs = workerJvmArgs == null ? Collections.emptyList() : List.copyOf(workerJvmArgs);
+    }
+
+    // Hủy lần chạy hiện tại; để hủy cả trước khi run() bắt đầu, truyền RunOptions.cancelToken
+    public void cancel() {
+        cancelToken.cancel();
+        synchronized (processes) {
+            for (Process p : processes) p.destroy();
+        }
+    }
+
+    // Ghi ba nội dung ra file tạm rồi chạy như run(Path, ...)
+    public MLHUIMiner.Result run(String transactionsText, String externalUtilityText, String taxonomyText,
+                                 int minUtil, MLHUIMiner.RunOptions options, MLHUIMiner.LogSink logSink)
+            throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("mlhui-part");
+        try {
+            Path t = Files.writeString(dir.resolve("transactions.txt"), transactionsText, StandardCharsets.UTF_8);
+            Path e = Files.writeString(dir.resolve("external_utility.txt"), externalUtilityText, StandardCharsets.UTF_8);
+            Path x = Files.writeString(dir.resolve("taxonomy.txt"), taxonomyText, StandardCharsets.UTF_8);
+            return run(t, e, x, minUtil, options, logSink);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) Files.deleteIfExists(f);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    public MLHUIMiner.Result run(Path transactions, Path externalUtility, Path taxonomy, int minUtil,
+                                 MLHUIMiner.RunOptions options, MLHUIMiner.LogSink logSink)
+            throws IOException, InterruptedException {
+        MLHUIMiner.RunOptions opts = options == null ? new MLHUIMiner.RunOptions() : options;
+        MLHUIMiner.LogSink log = logSink == null ? s -> { } : logSink;
+        MLHUIMiner.CancelToken token = cancelToken = opts.cancelToken != null ? opts.cancelToken : new MLHUIMiner.CancelToken();
+        long start = System.nanoTime();
+        MLHUIMiner.logStart(log);
+        log.log(" Phân vùng: " + workers + " worker, nhánh gốc i -> worker i % " + workers);
+
+        WorkerOutput[] outputs = new WorkerOutput[workers];
+        Thread[] readers = new Thread[workers];
+        try {
+            for (int w = 0; w < workers && !token.isCancelled(); w++) {
+                List<String> cmd = workerCommand(transactions, externalUtility, taxonomy, minUtil, opts, w);
+                ProcessBuilder pb = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT);
+                Process p = pb.start();
+                synchronized (processes) {
+                    processes.add(p);
+                    // cancel() có thể đã chạy giữa lúc kiểm tra token và lúc thêm tiến trình
+                    if (token.isCancelled()) p.destroy();
+                }
+                WorkerOutput out = outputs[w] = new WorkerOutput();
+                // Mỗi worker một luồng đọc để ống stdout không bị đầy
+                readers[w] = new Thread(() -> out.read(p.getInputStream()), "mlhui-worker-" + w);
+                readers[w].start();
+            }
+            for (int w = 0; w < workers && readers[w] != null; w++) {
+                readers[w].join();
+                int exit = processes.get(w).waitFor();
+                if (!token.isCancelled() && (exit != 0 || outputs[w].status == null)) {
+                    throw new IllegalStateException("Worker " + w + " lỗi (exit code " + exit + ")"
+                            + (outputs[w].error == null ? "" : ": " + outputs[w].error));
+                }
+            }
+        } finally {
+            synchronized (processes) {
+                for (Process p : processes) p.destroy();
+                processes.clear();
+            }
+        }
+
+        // Gộp: level theo thứ tự tăng dần, HUI theo thứ tự nhánh gốc (sắp xếp ổn định)
+        MLHUIMiner.Status status = MLHUIMiner.Status.COMPLETED;
+        boolean approximate = false;
+        long memKb = 0;
+        SortedMap<Integer, List<BranchHui>> byLevel = new TreeMap<>();
+        for (int w = 0; w < workers; w++) {
+            WorkerOutput out = outputs[w];
+            if (out == null) continue;
+            if (status == MLHUIMiner.Status.COMPLETED && out.status != null) status = out.status;
+            approximate |= out.approximate;
+            memKb = Math.max(memKb, out.memoryKb);
+            for (int level : out.levels) byLevel.computeIfAbsent(level, k -> new ArrayList<>());
+            for (BranchHui h : out.huis) byLevel.computeIfAbsent(h.level, k -> new ArrayList<>()).add(h);
+            log.log(" Worker " + w + ": " + out.huis.size() + " HUI, " + out.timeMs + " ms, "
+                    + out.memoryKb + " KB, " + out.status);
+        }
+        if (token.isCancelled()) status = MLHUIMiner.Status.CANCELLED;
+        Map<Integer, List<MLHUIMiner.Hui>> huisByLevel = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<Integer, List<BranchHui>> lv : byLevel.entrySet()) {
+            List<BranchHui> branchHuis = lv.getValue();
+            branchHuis.sort(Comparator.comparingInt(h -> h.branch));
+            List<MLHUIMiner.Hui> huis = new ArrayList<>();
+            for (BranchHui h : branchHuis) huis.add(h.hui);
+            if (outputMode == MLHUIMiner.OutputMode.MAXIMAL) huis = dropSubsumed(huis);
+            if (opts.maxResults > 0 && total + huis.size() > opts.maxResults) {
+                huis = new ArrayList<>(huis.subList(0, (int) (opts.maxResults - total)));
+                status = MLHUIMiner.Status.RESULT_LIMIT;
+            }
+            total += huis.size();
+            MLHUIMiner.logLevelStart(log, lv.getKey());
+            MLHUIMiner.logLevelResults(log, lv.getKey(), huis);
+            huisByLevel.put(lv.getKey(), Collections.unmodifiableList(huis));
+            if (status == MLHUIMiner.Status.RESULT_LIMIT) break;
+        }
+        long timeMs = (System.nanoTime() - start) / 1_000_000;
+        return new MLHUIMiner.Result(timeMs, memKb, status, approximate, Collections.unmodifiableMap(huisByLevel));
+    }
+
+    private List<String> workerCommand(Path transactions, Path externalUtility, Path taxonomy, int minUtil,
+                                       MLHUIMiner.RunOptions o, int index) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        // Chỉ kế thừa các tham số JVM worker cần để chạy được (không lấy JMX, agent, debugger, -D...)
+        List<String> inherited = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (int k = 0; k < inherited.size(); k++) {
+            String arg = inherited.get(k);
+            if (arg.equals("--enable-preview") || arg.startsWith("--add-modules=") || arg.startsWith("-Xss")) {
+                cmd.add(arg);
+            } else if (arg.equals("--add-modules") && k + 1 < inherited.size()) {
+                cmd.add(arg);
+                cmd.add(inherited.get(++k));
+            }
+        }
+        // Worker dùng cùng kernel với tiến trình điều phối
+        int vectorMinLength = UtilityKernels.get().vectorMinLength();
+        if (vectorMinLength >= 0) cmd.add("-Dmlhui.vectorMinLength=" + vectorMinLength);
+        cmd.addAll(workerJvmArgs);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(PartitionedMiner.class.getName());
+        cmd.add(WORKER_FLAG);
+        cmd.add(transactions.toAbsolutePath().toString());
+        cmd.add(externalUtility.toAbsolutePath().toString());
+        cmd.add(taxonomy.toAbsolutePath().toString());
+        cmd.add(Integer.toString(minUtil));
+        cmd.add("engine=" + engine);
+        cmd.add("storage=" + storage);
+        cmd.add("outputMode=" + outputMode);
+        cmd.add("timeLimitMs=" + o.timeLimitMs);
+        cmd.add("maxResults=" + o.maxResults);
+        cmd.add("heapBudgetBytes=" + o.heapBudgetBytes);
+        cmd.add("sampleFraction=" + o.sampleFraction);
+        cmd.add("sampleStratified=" + o.sampleStratified);
+        cmd.add("sampleSeed=" + o.sampleSeed);
+        cmd.add("sampleSlack=" + o.sampleSlack);
+        cmd.add("sampleZ=" + o.sampleZ);
+        cmd.add("sampleVerify=" + o.sampleVerify);
+        cmd.add("partitionCount=" + workers);
+        cmd.add("partitionIndex=" + index);
+        if (launcherPrefix.isEmpty()) return cmd;
+        List<String> full = new ArrayList<>(launcherPrefix);
+        for (String arg : cmd) full.add(launcherShell ? shellQuote(arg) : arg);
+        return full;
+    }
+
+    private static String shellQuote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    // Giữ các tập không phải tập con thực sự của tập khác trong cùng level
+    private static List<MLHUIMiner.Hui> dropSubsumed(List<MLHUIMiner.Hui> huis) {
+        List<Set<String>> sets = new ArrayList<>();
+        for (MLHUIMiner.Hui h : huis) sets.add(new HashSet<>(h.items));
+        List<MLHUIMiner.Hui> kept = new ArrayList<>();
+        for (int i = 0; i < huis.size(); i++) {
+            boolean subsumed = false;
+            for (int j = 0; j < huis.size() && !subsumed; j++) {
+                subsumed = j != i && sets.get(j).size() > sets.get(i).size() && sets.get(j).containsAll(sets.get(i));
+            }
+            if (!subsumed) kept.add(huis.get(i));
+        }
+        return kept;
+    }
+
+    static final class BranchHui {
+        final int level, branch;
+        final MLHUIMiner.Hui hui;
+
+        BranchHui(int level, int branch, MLHUIMiner.Hui hui) {
+            this.level = level;
+            this.branch = branch;
+            this.hui = hui;
+        }
+    }
+
+    // Kết quả đọc từ stdout của một worker:
+    // "LEVEL l", "HUI l branch estimated utility margin item<TAB>item...",
+    // "DONE timeMs memoryKb status approximate", "ERROR message"
+    static final class WorkerOutput {
+        final List<BranchHui> huis = new ArrayList<>();
+        final Set<Integer> levels = new TreeSet<>();
+        MLHUIMiner.Status status;
+        boolean approximate;
+        long timeMs, memoryKb;
+        String error;
+
+        void read(InputStream in) {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (line.startsWith("HUI ")) {
+                        String[] p = line.split(" ", 7);
+                        MLHUIMiner.Hui hui = new MLHUIMiner.Hui(Arrays.asList(p[6].split("\t")),
+                                Long.parseLong(p[4]), Boolean.parseBoolean(p[3]), Long.parseLong(p[5]));
+                        huis.add(new BranchHui(Integer.parseInt(p[1]), Integer.parseInt(p[2]), hui));
+                    } else if (line.startsWith("LEVEL ")) {
+                        levels.add(Integer.parseInt(line.substring(6)));
+                    } else if (line.startsWith("DONE ")) {
+                        String[] p = line.split(" ");
+                        timeMs = Long.parseLong(p[1]);
+                        memoryKb = Long.parseLong(p[2]);
+                        status = MLHUIMiner.Status.valueOf(p[3]);
+                        approximate = Boolean.parseBoolean(p[4]);
+                    } else if (line.startsWith("ERROR ")) {
+                        error = line.substring(6);
+                    }
+                }
+            } catch (IOException ex) {
+                error = ex.getMessage();
+            }
+        }
+    }
+
+    // Worker: --worker transactions external taxonomy minUtil key=value...; điều phối: transactions external taxonomy minUtil workers
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(WORKER_FLAG)) {
+            runWorker(args);
+            return;
+        }
+        if (args.length < 5) {
+            System.err.println("Usage: PartitionedMiner <transactions> <external utility> <taxonomy> <minUtil> <workers>");
+            System.exit(2);
+        }
+        PartitionedMiner coordinator = new PartitionedMiner(Integer.parseInt(args[4]));
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8);
+        MLHUIMiner.Result r = coordinator.run(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[2]),
+                Integer.parseInt(args[3]), new MLHUIMiner.RunOptions(), out::println);
+        out.println("\nTime: " + r.timeMs + " ms, Memory: " + r.memoryKb + " KB, " + r.status);
+    }
+
+    private static void runWorker(String[] args) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)),
+                false, StandardCharsets.UTF_8);
+        try {
+            MLHUIMiner miner = new MLHUIMiner();
+            MLHUIMiner.RunOptions o = new MLHUIMiner.RunOptions();
+            for (int k = 5; k < args.length; k++) {
+                String[] kv = args[k].split("=", 2);
+                switch (kv[0]) {
+                    case "engine" -> miner.setEngine(MLHUIMiner.Engine.valueOf(kv[1]));
+                    case "storage" -> miner.setStorage(MLHUIMiner.Storage.valueOf(kv[1]));
+                    case "outputMode" -> miner.setOutputMode(MLHUIMiner.OutputMode.valueOf(kv[1]));
+                    case "timeLimitMs" -> o.timeLimitMs = Long.parseLong(kv[1]);
+                    case "maxResults" -> o.maxResults = Long.parseLong(kv[1]);
+                    case "heapBudgetBytes" -> o.heapBudgetBytes = Long.parseLong(kv[1]);
+                    case "sampleFraction" -> o.sampleFraction = Double.parseDouble(kv[1]);
+                    case "sampleStratified" -> o.sampleStratified = Boolean.parseBoolean(kv[1]);
+                    case "sampleSeed" -> o.sampleSeed = Long.parseLong(kv[1]);
+                    case "sampleSlack" -> o.sampleSlack = Double.parseDouble(kv[1]);
+                    case "sampleZ" -> o.sampleZ = Double.parseDouble(kv[1]);
+                    case "sampleVerify" -> o.sampleVerify = Boolean.parseBoolean(kv[1]);
+                    case "partitionCount" -> o.partitionCount = Integer.parseInt(kv[1]);
+                    case "partitionIndex" -> o.partitionIndex = Integer.parseInt(kv[1]);
+                    default -> throw new IllegalArgumentException("Tham số worker không hợp lệ: " + args[k]);
+                }
+            }
+            miner.setHuiListener((level, branch, hui) -> out.println("HUI " + level + " " + branch + " "
+                    + hui.estimated + " " + hui.utility + " " + hui.margin + " " + String.join("\t", hui.items)));
+            MLHUIMiner.Result r = miner.run(
+                    Files.readString(Paths.get(args[1]), StandardCharsets.UTF_8),
+                    Files.readString(Paths.get(args[2]), StandardCharsets.UTF_8),
+                    Files.readString(Paths.get(args[3]), StandardCharsets.UTF_8),
+                    Integer.parseInt(args[4]), o, null);
+            for (int level : r.huisByLevel.keySet()) out.println("LEVEL " + level);
+            out.println("DONE " + r.timeMs + " " + r.memoryKb + " " + r.status + " " + r.approximate);
+        } catch (RuntimeException | IOException ex) {
+            out.println("ERROR " + ex);
+            out.flush();
+            System.exit(1);
+        }
+        out.flush();
+    }
+}
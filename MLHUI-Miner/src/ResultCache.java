@@ -0,0 +1,183 @@
+// Bộ nhớ đệm kết quả HUI theo nội dung dữ liệu đầu vào
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// Giữ HUI của lần chạy có minUtil thấp nhất cho mỗi bộ dữ liệu; minUtil cao hơn được trả lời bằng cách lọc (LRU, lưu ra file)
+public class ResultCache {
+    private static final int FILE_MAGIC = 0x4D4C4843; // "MLHC"
+    private static final int FILE_VERSION = 3;
+
+    static final class Entry {
+        final String key;
+        final int minUtil;
+        // level -> các HUI theo đúng thứ tự đã khai phá
+        final Map<Integer, List<MLHUIMiner.Hui>> huis = new LinkedHashMap<>();
+        // level -> TWU lớn nhất của các mục ở level đó
+        final Map<Integer, Long> maxTwu = new HashMap<>();
+        long bytes = 64;
+
+        Entry(String key, int minUtil) {
+            this.key = key;
+            this.minUtil = minUtil;
+        }
+
+        void addLevel(int level, long levelMaxTwu, List<MLHUIMiner.Hui> levelHuis) {
+            huis.put(level, levelHuis);
+            maxTwu.put(level, levelMaxTwu);
+            bytes += 48;
+            for (MLHUIMiner.Hui h : levelHuis) {
+                bytes += 64;
+                for (String item : h.items) bytes += 48 + 2L * item.length();
+            }
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    public ResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    // Chỉ kết quả ALL đầy đủ mới lọc lại được: HUI đóng/tối đại không suy ra bằng cách lọc, maxResults và phân hoạch chỉ cho một phần
+    public static boolean cacheable(MLHUIMiner.OutputMode mode, MLHUIMiner.RunOptions options) {
+        return mode == MLHUIMiner.OutputMode.ALL
+                && (options == null || (options.maxResults == 0 && options.partitionCount == 1));
+    }
+
+    // SHA-256 của ba nội dung đầu vào (có tiền tố độ dài để tránh trùng khi ghép)
+    public static String key(String transactions, String externalUtility, String taxonomy) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] { transactions, externalUtility, taxonomy }) {
+                byte[] b = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+                md.update(Integer.toString(b.length).getBytes(StandardCharsets.US_ASCII));
+                md.update((byte) ':');
+                md.update(b);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Kết quả đã lưu ở ngưỡng <= minUtil: ghi log phần đã lọc như MLHUIMiner và trả về Result, không có thì null
+    public synchronized MLHUIMiner.Result replay(String key, int minUtil, MLHUIMiner.LogSink logSink) {
+        Entry e = entries.get(key);
+        if (e == null || e.minUtil > minUtil) return null;
+        long start = System.nanoTime();
+        Map<Integer, List<MLHUIMiner.Hui>> huisByLevel = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<MLHUIMiner.Hui>> lv : e.huis.entrySet()) {
+            // Level không còn mục nào qua ngưỡng TWU thì lần chạy mới cũng không mở
+            if (e.maxTwu.get(lv.getKey()) < minUtil) continue;
+            List<MLHUIMiner.Hui> kept = new ArrayList<>();
+            for (MLHUIMiner.Hui h : lv.getValue()) if (h.utility >= minUtil) kept.add(h);
+            huisByLevel.put(lv.getKey(), Collections.unmodifiableList(kept));
+        }
+        MLHUIMiner.logStart(logSink);
+        logSink.log(" Cache: dùng kết quả đã khai phá với minUtil = " + e.minUtil);
+        for (Map.Entry<Integer, List<MLHUIMiner.Hui>> lv : huisByLevel.entrySet()) {
+            MLHUIMiner.logLevelStart(logSink, lv.getKey());
+            MLHUIMiner.logLevelResults(logSink, lv.getKey(), lv.getValue());
+        }
+        long timeMs = (System.nanoTime() - start) / 1_000_000;
+        long memKb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024;
+        Map<Integer, Long> maxTwu = new HashMap<>();
+        for (int level : huisByLevel.keySet()) maxTwu.put(level, e.maxTwu.get(level));
+        return new MLHUIMiner.Result(timeMs, memKb, MLHUIMiner.Status.COMPLETED, false,
+                Collections.unmodifiableMap(huisByLevel), Collections.unmodifiableMap(maxTwu));
+    }
+
+    // Lưu kết quả chạy trọn vẹn, chính xác (không lấy mẫu), có TWU theo level và ngưỡng thấp hơn ngưỡng đang lưu
+    public synchronized void put(String key, int minUtil, MLHUIMiner.Result result) {
+        if (result.status != MLHUIMiner.Status.COMPLETED || result.approximate) return;
+        if (!result.maxTwuByLevel.keySet().containsAll(result.huisByLevel.keySet())) return;
+        Entry old = entries.get(key);
+        if (old != null && old.minUtil <= minUtil) return;
+        Entry e = new Entry(key, minUtil);
+        for (Map.Entry<Integer, List<MLHUIMiner.Hui>> lv : result.huisByLevel.entrySet()) {
+            e.addLevel(lv.getKey(), result.maxTwuByLevel.get(lv.getKey()), List.copyOf(lv.getValue()));
+        }
+        add(e);
+    }
+
+    private void add(Entry e) {
+        Entry old = entries.remove(e.key);
+        if (old != null) totalBytes -= old.bytes;
+        if (e.bytes > maxBytes) return;
+        entries.put(e.key, e);
+        totalBytes += e.bytes;
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.bytes;
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    public synchronized long bytes() { return totalBytes; }
+
+    // Ghi toàn bộ bộ nhớ đệm ra file (ghi file tạm rồi đổi tên)
+    public synchronized void save(Path file) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            for (Entry e : entries.values()) {
+                out.writeUTF(e.key);
+                out.writeInt(e.minUtil);
+                out.writeInt(e.huis.size());
+                for (Map.Entry<Integer, List<MLHUIMiner.Hui>> lv : e.huis.entrySet()) {
+                    out.writeInt(lv.getKey());
+                    out.writeLong(e.maxTwu.get(lv.getKey()));
+                    out.writeInt(lv.getValue().size());
+                    for (MLHUIMiner.Hui h : lv.getValue()) {
+                        out.writeInt(h.items.size());
+                        for (String item : h.items) out.writeUTF(item);
+                        out.writeLong(h.utility);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Đọc bộ nhớ đệm từ file (nếu có), các mục đọc được vẫn tuân theo giới hạn LRU
+    public synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Unsupported cache file: " + file);
+            }
+            int count = in.readInt();
+            for (int k = 0; k < count; k++) {
+                Entry e = new Entry(in.readUTF(), in.readInt());
+                int levels = in.readInt();
+                for (int l = 0; l < levels; l++) {
+                    int level = in.readInt();
+                    long levelMaxTwu = in.readLong();
+                    int n = in.readInt();
+                    List<MLHUIMiner.Hui> huis = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        String[] items = new String[in.readInt()];
+                        for (int j = 0; j < items.length; j++) items[j] = in.readUTF();
+                        huis.add(new MLHUIMiner.Hui(Arrays.asList(items), in.readLong()));
+                    }
+                    e.addLevel(level, levelMaxTwu, huis);
+                }
+                add(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// Chỉ mục phân cấp (taxonomy) mã hoá theo khoảng
+import java.util.*;
+
+// Lá đánh số theo DFS nên lá con cháu của mỗi mục tổng quát là khoảng [rangeStart, rangeEnd); dựng bằng vòng lặp, không đệ quy
+// Mục con khai báo dưới nhiều cha thì giữ cha khai báo sau cùng
+public final class TaxonomyIndex {
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int leafCount;
+    private final int[] parent;
+    private final int[] level;
+    private final int[] rangeStart;
+    private final int[] rangeEnd;
+    private final int maxLevel;
+
+    public TaxonomyIndex(Map<String, List<String>> taxonomy, Collection<String> primitives) {
+        // 1. Gán id tạm cho mọi nút theo thứ tự khai báo
+        Map<String, Integer> tmpIds = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> e : taxonomy.entrySet()) {
+            tmpIds.putIfAbsent(e.getKey(), tmpIds.size());
+            for (String c : e.getValue()) tmpIds.putIfAbsent(c, tmpIds.size());
+        }
+        for (String p : primitives) tmpIds.putIfAbsent(p, tmpIds.size());
+        int n = tmpIds.size();
+        String[] tmpNames = tmpIds.keySet().toArray(new String[0]);
+        int[] tmpParent = new int[n];
+        Arrays.fill(tmpParent, -1);
+        for (Map.Entry<String, List<String>> e : taxonomy.entrySet()) {
+            int p = tmpIds.get(e.getKey());
+            for (String c : e.getValue()) tmpParent[tmpIds.get(c)] = p;
+        }
+        detectCycles(tmpParent, tmpNames);
+
+        // 2. Danh sách con dạng CSR (giữ thứ tự khai báo)
+        int[] childCount = new int[n + 1];
+        for (int v = 0; v < n; v++) if (tmpParent[v] >= 0) childCount[tmpParent[v] + 1]++;
+        for (int v = 0; v < n; v++) childCount[v + 1] += childCount[v];
+        int[] childStart = childCount;
+        int[] children = new int[childStart[n]];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (int v = 0; v < n; v++) if (tmpParent[v] >= 0) children[fill[tmpParent[v]]++] = v;
+
+        // 3. DFS lặp từ các gốc: lá nhận id 0..leafCount-1, mục tổng quát nhận id sau đó
+        int leaves = 0;
+        for (int v = 0; v < n; v++) if (childStart[v] == childStart[v + 1] && !taxonomy.containsKey(tmpNames[v])) leaves++;
+        leafCount = leaves;
+        int[] newId = new int[n];
+        int nextLeaf = 0, nextGeneral = leafCount;
+        int[] tmpStart = new int[n], tmpEnd = new int[n], tmpLevel = new int[n];
+        int[] stack = new int[n];
+        int[] cursor = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (tmpParent[root] >= 0) continue;
+            int sp = 0;
+            stack[sp++] = root;
+            cursor[root] = childStart[root];
+            tmpStart[root] = nextLeaf;
+            while (sp > 0) {
+                int v = stack[sp - 1];
+                if (cursor[v] < childStart[v + 1]) {
+                    int c = children[cursor[v]++];
+                    cursor[c] = childStart[c];
+                    tmpStart[c] = nextLeaf;
+                    stack[sp++] = c;
+                    continue;
+                }
+                sp--;
+                boolean isLeaf = childStart[v] == childStart[v + 1] && !taxonomy.containsKey(tmpNames[v]);
+                if (isLeaf) {
+                    newId[v] = nextLeaf++;
+                    tmpLevel[v] = 0;
+                } else {
+                    newId[v] = nextGeneral++;
+                    // level = 1 + level nhỏ nhất của các con (các con đã được duyệt xong)
+                    int minChild = Integer.MAX_VALUE;
+                    for (int k = childStart[v]; k < childStart[v + 1]; k++) minChild = Math.min(minChild, tmpLevel[children[k]]);
+                    tmpLevel[v] = minChild == Integer.MAX_VALUE ? 0 : minChild + 1;
+                }
+                tmpEnd[v] = nextLeaf;
+            }
+        }
+
+        // 4. Sắp xếp lại theo id mới
+        names = new String[n];
+        ids = new HashMap<>(n * 2);
+        parent = new int[n];
+        level = new int[n];
+        rangeStart = new int[n - leafCount];
+        rangeEnd = new int[n - leafCount];
+        int ml = 0;
+        for (int v = 0; v < n; v++) {
+            int id = newId[v];
+            names[id] = tmpNames[v];
+            ids.put(tmpNames[v], id);
+            parent[id] = tmpParent[v] < 0 ? -1 : newId[tmpParent[v]];
+            level[id] = tmpLevel[v];
+            if (id >= leafCount) {
+                rangeStart[id - leafCount] = tmpStart[v];
+                rangeEnd[id - leafCount] = tmpEnd[v];
+            }
+            ml = Math.max(ml, tmpLevel[v]);
+        }
+        maxLevel = ml;
+    }
+
+    private static void detectCycles(int[] parent, String[] names) {
+        byte[] state = new byte[parent.length]; // 0 = chưa xét, 1 = đang xét, 2 = xong
+        for (int v = 0; v < parent.length; v++) {
+            int u = v;
+            while (u >= 0 && state[u] == 0) {
+                state[u] = 1;
+                u = parent[u];
+            }
+            if (u >= 0 && state[u] == 1) {
+                throw new IllegalArgumentException("Taxonomy có chu trình tại mục: " + names[u]);
+            }
+            for (u = v; u >= 0 && state[u] == 1; u = parent[u]) state[u] = 2;
+        }
+    }
+
+    public int size() { return names.length; }
+    public int maxLevel() { return maxLevel; }
+    public String name(int id) { return names[id]; }
+    public int id(String name) { return ids.getOrDefault(name, -1); }
+    public boolean isLeaf(int id) { return id < leafCount; }
+    public int parent(int id) { return parent[id]; }
+    public int level(int id) { return level[id]; }
+    public int level(String name) {
+        Integer id = ids.get(name);
+        return id == null ? 0 : level[id];
+    }
+    // Id lá đầu tiên thuộc nút (với lá: chính nó)
+    public int rangeStart(int id) { return id < leafCount ? id : rangeStart[id - leafCount]; }
+    // Id lá ngay sau lá cuối cùng thuộc nút (không bao gồm)
+    public int rangeEnd(int id) { return id < leafCount ? id + 1 : rangeEnd[id - leafCount]; }
+}
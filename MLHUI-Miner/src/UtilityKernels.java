@@ -0,0 +1,171 @@
+// Các vòng lặp nóng trên utility list dạng cột: giao tid và cộng utility
+// Mặc định chạy bản vô hướng; bản vector (cần --add-modules jdk.incubator.vector) chỉ bật khi chỉ rõ
+// -Dmlhui.vectorMinLength=n, áp dụng cho danh sách dài từ n. Gợi ý n: java UtilityKernels (đo trên máy này)
+public abstract class UtilityKernels {
+    // Độ dài danh sách được đo khi gợi ý ngưỡng vector
+    private static final int[] CALIBRATION_LENGTHS = {64, 256, 1024, 4096, 16384};
+    // Vector phải nhanh hơn ít nhất 1.5 lần: phép nối chỉ là một phần chi phí của mỗi nút DFS
+    private static final double CALIBRATION_GAIN = 0.67;
+    private static final UtilityKernels INSTANCE = load();
+
+    public static UtilityKernels get() { return INSTANCE; }
+
+    private static UtilityKernels load() {
+        Integer minLength = Integer.getInteger("mlhui.vectorMinLength");
+        if (minLength == null) return new Scalar("scalar");
+        UtilityKernels vector = vector(minLength);
+        return vector != null ? vector : new Scalar("scalar (không nạp được jdk.incubator.vector)");
+    }
+
+    private static UtilityKernels vector(int minLength) {
+        try {
+            Class<?> c = Class.forName("VectorUtilityKernels");
+            UtilityKernels v = (UtilityKernels) c.getDeclaredConstructor(int.class).newInstance(minLength);
+            return v.lanes() > 1 ? v : null;
+        } catch (Throwable ignored) {
+            // Thiếu module jdk.incubator.vector hoặc phần cứng không hỗ trợ
+            return null;
+        }
+    }
+
+    // In ngưỡng -Dmlhui.vectorMinLength gợi ý cho máy này (không chạy khi nạp lớp)
+    public static void main(String[] args) {
+        UtilityKernels vector = vector(0);
+        if (vector == null) {
+            System.out.println("Không có jdk.incubator.vector: dùng scalar");
+            return;
+        }
+        int n = calibrate(new Scalar("scalar"), vector);
+        System.out.println(n == Integer.MAX_VALUE ? "Vector không nhanh hơn: dùng scalar (mặc định)"
+                : "-Dmlhui.vectorMinLength=" + n);
+    }
+
+    // Ngưỡng vector đang dùng, -1 nếu chạy vô hướng (PartitionedMiner truyền lại cho worker)
+    public int vectorMinLength() { return -1; }
+
+    // Đo một phép nối (giống MLHUIMiner.construct) trên dữ liệu tổng hợp; trả về độ dài nhỏ nhất mà từ đó
+    // trở lên vector luôn nhanh hơn, hoặc Integer.MAX_VALUE
+    private static int calibrate(UtilityKernels scalar, UtilityKernels vector) {
+        int maxN = CALIBRATION_LENGTHS[CALIBRATION_LENGTHS.length - 1];
+        java.util.Random rnd = new java.util.Random(42);
+        int[] a = new int[maxN], b = new int[maxN], ua = new int[maxN], ub = new int[maxN];
+        int[] ia = new int[maxN], ib = new int[maxN], out = new int[maxN];
+        // Hai danh sách tid tăng dần, mỗi tid có mặt với xác suất ~2/3 nên giao khoảng một nửa
+        for (int k = 0, ta = 0, tb = 0; k < maxN; k++) {
+            ta += 1 + (rnd.nextInt(3) == 0 ? 1 : 0);
+            tb += 1 + (rnd.nextInt(3) == 0 ? 1 : 0);
+            a[k] = ta;
+            b[k] = tb;
+            ua[k] = 1 + rnd.nextInt(100);
+            ub[k] = 1 + rnd.nextInt(100);
+        }
+        // Làm nóng để JIT biên dịch cả hai bản trước khi đo
+        for (int r = 0; r < 20000; r++) {
+            int n = CALIBRATION_LENGTHS[r % CALIBRATION_LENGTHS.length];
+            join(scalar, a, b, ua, ub, n, ia, ib, out);
+            join(vector, a, b, ua, ub, n, ia, ib, out);
+        }
+        int minLength = Integer.MAX_VALUE;
+        for (int li = CALIBRATION_LENGTHS.length - 1; li >= 0; li--) {
+            int n = CALIBRATION_LENGTHS[li];
+            int reps = Math.max(1, (1 << 18) / n);
+            // Lấy thời gian tốt nhất của 5 lượt
+            long ts = Long.MAX_VALUE, tv = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                ts = Math.min(ts, time(scalar, a, b, ua, ub, n, ia, ib, out, reps));
+                tv = Math.min(tv, time(vector, a, b, ua, ub, n, ia, ib, out, reps));
+            }
+            if (tv >= ts * CALIBRATION_GAIN) break;
+            minLength = n;
+        }
+        return minLength;
+    }
+
+    private static long time(UtilityKernels kernels, int[] a, int[] b, int[] ua, int[] ub, int n,
+                             int[] ia, int[] ib, int[] out, int reps) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int r = 0; r < reps; r++) sink += join(kernels, a, b, ua, ub, n, ia, ib, out);
+        long elapsed = System.nanoTime() - start;
+        return sink == 42 ? elapsed + 1 : elapsed;
+    }
+
+    private static int join(UtilityKernels kernels, int[] a, int[] b, int[] ua, int[] ub, int n,
+                            int[] ia, int[] ib, int[] out) {
+        int k = kernels.intersect(a, n, b, n, ia, ib);
+        kernels.gather(a, ia, k, out);
+        kernels.gatherAdd(ua, ia, ub, ib, k, out);
+        int s = kernels.sum(out, k);
+        kernels.gather(ub, ib, k, out);
+        return s + kernels.sum(out, k);
+    }
+
+    public abstract String description();
+
+    // Số phần tử xử lý song song (1 với bản vô hướng)
+    public abstract int lanes();
+
+    // Giao hai mảng tid tăng dần a[0..na) và b[0..nb), ghi chỉ số khớp vào ia/ib (ít nhất min(na, nb) phần tử)
+    public int intersect(int[] a, int na, int[] b, int nb, int[] ia, int[] ib) {
+        // Duyệt theo danh sách ngắn hơn
+        return na <= nb ? intersectShortFirst(a, na, b, nb, ia, ib) : intersectShortFirst(b, nb, a, na, ib, ia);
+    }
+
+    protected abstract int intersectShortFirst(int[] a, int na, int[] b, int nb, int[] ia, int[] ib);
+
+    // out[k] = x[ix[k]] + y[iy[k]] với k thuộc [0, n)
+    public abstract void gatherAdd(int[] x, int[] ix, int[] y, int[] iy, int n, int[] out);
+
+    // out[k] = x[ix[k]] với k thuộc [0, n)
+    public abstract void gather(int[] x, int[] ix, int n, int[] out);
+
+    // Tổng a[0..n) (tràn số giống phép cộng int thông thường)
+    public abstract int sum(int[] a, int n);
+
+    static final class Scalar extends UtilityKernels {
+        private final String description;
+
+        Scalar(String description) { this.description = description; }
+
+        @Override
+        public String description() { return description; }
+
+        @Override
+        public int lanes() { return 1; }
+
+        @Override
+        protected int intersectShortFirst(int[] a, int na, int[] b, int nb, int[] ia, int[] ib) {
+            return scalarIntersect(a, 0, na, b, 0, nb, ia, ib, 0);
+        }
+
+        @Override
+        public void gatherAdd(int[] x, int[] ix, int[] y, int[] iy, int n, int[] out) {
+            for (int k = 0; k < n; k++) out[k] = x[ix[k]] + y[iy[k]];
+        }
+
+        @Override
+        public void gather(int[] x, int[] ix, int n, int[] out) {
+            for (int k = 0; k < n; k++) out[k] = x[ix[k]];
+        }
+
+        @Override
+        public int sum(int[] a, int n) {
+            int s = 0;
+            for (int k = 0; k < n; k++) s += a[k];
+            return s;
+        }
+    }
+
+    // Giao hai đoạn đã sắp xếp bằng hai con trỏ, ghi tiếp từ vị trí k; trả về k mới
+    static int scalarIntersect(int[] a, int i, int na, int[] b, int j, int nb, int[] ia, int[] ib, int k) {
+        while (i < na && j < nb) {
+            int x = a[i], y = b[j];
+            if (x == y) {
+                ia[k] = i++;
+                ib[k++] = j++;
+            } else if (x < y) i++;
+            else j++;
+        }
+        return k;
+    }
+}
@@ -0,0 +1,86 @@
+// Bản SIMD của UtilityKernels dùng jdk.incubator.vector
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Chỉ được nạp qua reflection trong UtilityKernels, để JVM không có module jdk.incubator.vector vẫn chạy được
+final class VectorUtilityKernels extends UtilityKernels {
+    private static final VectorSpecies<Integer> S = IntVector.SPECIES_PREFERRED;
+    // Danh sách ngắn hơn ngưỡng này chạy bản vô hướng (-Dmlhui.vectorMinLength)
+    private final int minLength;
+
+    VectorUtilityKernels(int minLength) { this.minLength = minLength; }
+
+    @Override
+    public String description() {
+        return "vector (" + S.vectorBitSize() + "-bit, " + S.length() + " lanes, từ n=" + minLength + ")";
+    }
+
+    @Override
+    public int lanes() { return S.length(); }
+
+    @Override
+    public int vectorMinLength() { return minLength; }
+
+    // Mỗi tid của danh sách ngắn được so sánh cùng lúc với cả một khối L tid của danh sách dài
+    @Override
+    protected int intersectShortFirst(int[] a, int na, int[] b, int nb, int[] ia, int[] ib) {
+        if (nb < minLength) return scalarIntersect(a, 0, na, b, 0, nb, ia, ib, 0);
+        int L = S.length();
+        int i = 0, j = 0, k = 0;
+        while (i < na && j + L <= nb) {
+            int blockMax = b[j + L - 1];
+            if (a[i] > blockMax) {
+                j += L;
+                continue;
+            }
+            IntVector block = IntVector.fromArray(S, b, j);
+            while (i < na && a[i] <= blockMax) {
+                VectorMask<Integer> eq = block.eq(a[i]);
+                if (eq.anyTrue()) {
+                    ia[k] = i;
+                    ib[k++] = j + eq.firstTrue();
+                }
+                i++;
+            }
+            j += L;
+        }
+        return scalarIntersect(a, i, na, b, j, nb, ia, ib, k);
+    }
+
+    @Override
+    public void gatherAdd(int[] x, int[] ix, int[] y, int[] iy, int n, int[] out) {
+        int L = S.length();
+        int k = 0;
+        for (int bound = n < minLength ? 0 : S.loopBound(n); k < bound; k += L) {
+            IntVector vx = IntVector.fromArray(S, x, 0, ix, k);
+            IntVector vy = IntVector.fromArray(S, y, 0, iy, k);
+            vx.add(vy).intoArray(out, k);
+        }
+        for (; k < n; k++) out[k] = x[ix[k]] + y[iy[k]];
+    }
+
+    @Override
+    public void gather(int[] x, int[] ix, int n, int[] out) {
+        int L = S.length();
+        int k = 0;
+        for (int bound = n < minLength ? 0 : S.loopBound(n); k < bound; k += L) {
+            IntVector.fromArray(S, x, 0, ix, k).intoArray(out, k);
+        }
+        for (; k < n; k++) out[k] = x[ix[k]];
+    }
+
+    @Override
+    public int sum(int[] a, int n) {
+        int L = S.length();
+        int k = 0;
+        IntVector acc = IntVector.zero(S);
+        for (int bound = n < minLength ? 0 : S.loopBound(n); k < bound; k += L) {
+            acc = acc.add(IntVector.fromArray(S, a, k));
+        }
+        int s = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++) s += a[k];
+        return s;
+    }
+}